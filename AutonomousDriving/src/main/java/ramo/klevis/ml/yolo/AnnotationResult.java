@@ -0,0 +1,43 @@
+package ramo.klevis.ml.yolo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+
+/**
+ * Counts of annotating one video in a {@link BatchAnnotation}.
+ */
+@Getter
+@AllArgsConstructor
+public class AnnotationResult {
+    private final File video;
+    private final long frames;
+    private final long elapsedMillis;
+    /**
+     * Why the video could not be annotated, null if it was.
+     */
+    private final Exception failure;
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * @return the frames decoded, detected and written per second
+     */
+    public double getFramesPerSecond() {
+        return elapsedMillis == 0 ? 0 : frames * 1000d / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "AnnotationResult{" +
+                "video=" + video +
+                ", frames=" + frames +
+                ", elapsedMillis=" + elapsedMillis +
+                ", framesPerSecond=" + String.format("%.1f", getFramesPerSecond()) +
+                (failure == null ? "" : ", failure=" + failure) +
+                '}';
+    }
+}
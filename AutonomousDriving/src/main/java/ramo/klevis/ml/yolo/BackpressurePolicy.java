@@ -0,0 +1,31 @@
+package ramo.klevis.ml.yolo;
+
+/**
+ * What the {@link VideoPlayer} does with decoded frames when the detection
+ * cannot keep up with the video. Except for {@link #BLOCK} the frames are
+ * decoded at the pace of their timestamps.
+ */
+public enum BackpressurePolicy {
+
+    /**
+     * Decoding waits for the detection, every frame is detected and shown and
+     * the video slows down to the detection rate. A headless player does not
+     * wait for the frame rate either, it goes through the video as fast as
+     * the detection allows.
+     */
+    BLOCK,
+
+    /**
+     * The detection takes the newest decoded frame and the older ones are
+     * thrown away, the video keeps its pace and only detected frames are
+     * shown. Frames are decoded at their timestamps, so the ones thrown away
+     * are those the detection missed in real time.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Only every n-th frame is detected, the others are shown with the boxes
+     * of the last detection. Decoding waits when even that is too slow.
+     */
+    SKIP_N
+}
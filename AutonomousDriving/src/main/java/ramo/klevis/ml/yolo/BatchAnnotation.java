@@ -0,0 +1,144 @@
+package ramo.klevis.ml.yolo;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Annotates many videos without a display, several at a time, as fast as the
+ * detection allows. Every video runs through its own headless
+ * {@link VideoPlayer} that blocks rather than drops frames, so each frame is
+ * detected. All of them share the model loaded by the {@link ModelRegistry}
+ * and the {@link InferenceScheduler} of the speed, so frames of concurrent
+ * videos are detected in the same batches.
+ * <p>
+ * For a video {@code name.ext} the output directory gets the annotated
+ * {@code name-annotated.mp4} and the detections in {@code name.jsonl},
+ * {@code name.csv} or the binary {@code name.bin} of {@link DetectionLogWriter}.
+ */
+@Slf4j
+public class BatchAnnotation {
+
+    public static final String ANNOTATED_SUFFIX = "-annotated.mp4";
+
+    private final Speed speed;
+    private final boolean yoloModel;
+    private final int parallelism;
+    private final boolean writeVideo;
+    private final String detectionsFormat;
+
+    /**
+     * @param speed            the input size of the detection
+     * @param yoloModel        use YOLO2 rather than Tiny YOLO
+     * @param parallelism      how many videos to annotate at a time
+     * @param writeVideo       write the annotated video
+     * @param detectionsFormat {@code jsonl}, {@code csv} or {@code bin} for a detections file, null for none
+     */
+    public BatchAnnotation(Speed speed, boolean yoloModel, int parallelism, boolean writeVideo,
+                           String detectionsFormat) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive but was " + parallelism);
+        }
+        if (detectionsFormat != null && !"jsonl".equals(detectionsFormat) && !"csv".equals(detectionsFormat)
+                && !"bin".equals(detectionsFormat)) {
+            throw new IllegalArgumentException("Unknown detections format " + detectionsFormat);
+        }
+        if (!writeVideo && detectionsFormat == null) {
+            throw new IllegalArgumentException("Nothing to write, neither video nor detections");
+        }
+        this.speed = speed;
+        this.yoloModel = yoloModel;
+        this.parallelism = parallelism;
+        this.writeVideo = writeVideo;
+        this.detectionsFormat = detectionsFormat;
+    }
+
+    /**
+     * @param videos          the videos to annotate, any format FFmpeg decodes
+     * @param outputDirectory where the annotated videos and detections go, created if missing
+     * @return a result for every video in the same order, failed videos included
+     * @throws IOException          if the output directory can not be created
+     * @throws InterruptedException if interrupted while waiting for the videos
+     */
+    public List<AnnotationResult> annotate(List<File> videos, File outputDirectory)
+            throws IOException, InterruptedException {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Can not create " + outputDirectory);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(videos.size(), 1)));
+        try {
+            List<Future<AnnotationResult>> futures = new ArrayList<>(videos.size());
+            Set<String> names = new HashSet<>();
+            for (File video : videos) {
+                String name = uniqueName(video, names);
+                futures.add(executor.submit(() -> annotate(video, outputDirectory, name)));
+            }
+            List<AnnotationResult> results = new ArrayList<>(videos.size());
+            for (Future<AnnotationResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Annotation failed unexpectedly", e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private AnnotationResult annotate(File video, File outputDirectory, String name) {
+        long start = System.currentTimeMillis();
+        VideoPlayer player = new VideoPlayer(BackpressurePolicy.BLOCK, 1, VideoPlayer.DEFAULT_QUEUE_CAPACITY, true);
+        try {
+            List<FrameSink> sinks = new ArrayList<>();
+            if (writeVideo) {
+                sinks.add(new VideoFileSink(new File(outputDirectory, name + ANNOTATED_SUFFIX)));
+            }
+            if ("bin".equals(detectionsFormat)) {
+                File log = new File(outputDirectory, name + ".bin");
+                Files.deleteIfExists(log.toPath());
+                sinks.add(new DetectionLogWriter(log));
+            } else if (detectionsFormat != null) {
+                sinks.add(new DetectionFileSink(new File(outputDirectory, name + "." + detectionsFormat)));
+            }
+            player.startVideoDetection(video.getPath(), new Yolo(speed, yoloModel), sinks);
+            AnnotationResult result = new AnnotationResult(video, renderedFrames(player),
+                    System.currentTimeMillis() - start, null);
+            log.info("Annotated " + result);
+            return result;
+        } catch (Exception e) {
+            log.error("Failed to annotate " + video, e);
+            return new AnnotationResult(video, renderedFrames(player), System.currentTimeMillis() - start, e);
+        }
+    }
+
+    private static long renderedFrames(VideoPlayer player) {
+        List<PipelineStage> stages = player.getStages();
+        return stages.get(stages.size() - 1).getProcessed();
+    }
+
+    /**
+     * @return the file name without its suffix, numbered if another video had it already
+     */
+    private static String uniqueName(File video, Set<String> names) {
+        String fileName = video.getName();
+        int dot = fileName.lastIndexOf('.');
+        String name = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String unique = name;
+        for (int i = 2; !names.add(unique); i++) {
+            unique = name + "-" + i;
+        }
+        return unique;
+    }
+}
@@ -0,0 +1,28 @@
+package ramo.klevis.ml.yolo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * An object found in a frame, with its box in the pixels of the frame.
+ */
+@Getter
+@AllArgsConstructor
+public class Detection {
+    private final int predictedClass;
+    private final String label;
+    private final double confidence;
+    private final int x1;
+    private final int y1;
+    private final int x2;
+    private final int y2;
+
+    @Override
+    public String toString() {
+        return "Detection{" +
+                "label=" + label +
+                ", confidence=" + confidence +
+                ", box=" + x1 + "," + y1 + "," + x2 + "," + y2 +
+                '}';
+    }
+}
@@ -0,0 +1,99 @@
+package ramo.klevis.ml.yolo;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the detections of every frame into a text file. A {@code .csv} file
+ * gets a header and one row per detection, any other file gets JSON Lines,
+ * one object per frame with the array of its detections, frames without
+ * detections included.
+ */
+public class DetectionFileSink implements FrameSink {
+
+    private static final String CSV_HEADER = "frame,class,label,confidence,x1,y1,x2,y2";
+
+    private final File file;
+    private final boolean csv;
+    private Writer writer;
+
+    public DetectionFileSink(File file) {
+        this.file = file;
+        this.csv = file.getName().toLowerCase(Locale.ROOT).endsWith(".csv");
+    }
+
+    @Override
+    public void start(int width, int height, double frameRate) throws IOException {
+        writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+        if (csv) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+        }
+    }
+
+    @Override
+    public void write(long frameNumber, long timestamp, Mat image, List<Detection> detections) throws IOException {
+        if (csv) {
+            for (Detection detection : detections) {
+                writer.write(String.format(Locale.ROOT, "%d,%d,%s,%.4f,%d,%d,%d,%d\n", frameNumber,
+                        detection.getPredictedClass(), csvField(detection.getLabel()), detection.getConfidence(),
+                        detection.getX1(), detection.getY1(), detection.getX2(), detection.getY2()));
+            }
+            return;
+        }
+        StringBuilder line = new StringBuilder("{\"frame\":").append(frameNumber).append(",\"detections\":[");
+        for (int i = 0; i < detections.size(); i++) {
+            Detection detection = detections.get(i);
+            line.append(i == 0 ? "" : ",")
+                    .append(String.format(Locale.ROOT,
+                            "{\"class\":%d,\"label\":%s,\"confidence\":%.4f,\"x1\":%d,\"y1\":%d,\"x2\":%d,\"y2\":%d}",
+                            detection.getPredictedClass(), jsonString(detection.getLabel()),
+                            detection.getConfidence(), detection.getX1(), detection.getY1(),
+                            detection.getX2(), detection.getY2()));
+        }
+        writer.write(line.append("]}\n").toString());
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.contains(",") || value.contains("\"") ? "\"" + value.replace("\"", "\"\"") + "\"" : value;
+    }
+
+    private static String jsonString(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,124 @@
+package ramo.klevis.ml.yolo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static ramo.klevis.ml.yolo.DetectionLogWriter.COUNT_OFFSET;
+import static ramo.klevis.ml.yolo.DetectionLogWriter.HEADER_SIZE;
+import static ramo.klevis.ml.yolo.DetectionLogWriter.RECORD_SIZE;
+
+/**
+ * Reads a log written by {@link DetectionLogWriter} through memory mapped
+ * segments of the file, so logs beyond 2 GB work and only the pages looked
+ * at are loaded. Frames are found by binary search over the sorted records.
+ * Sees the records counted when it was opened, a log still being appended
+ * to has to be opened again for newer ones. Safe for concurrent reads.
+ */
+public class DetectionLogReader {
+
+    private static final int SEGMENT_RECORDS = Integer.MAX_VALUE / RECORD_SIZE;
+
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    public DetectionLogReader(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException(file + " is not a detection log");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            DetectionLogWriter.checkHeader(header, file);
+            size = header.getLong(COUNT_OFFSET);
+            if (channel.size() < HEADER_SIZE + size * RECORD_SIZE) {
+                throw new IOException(file + " is shorter than its " + size + " records");
+            }
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_RECORDS - 1) / SEGMENT_RECORDS)];
+            for (int i = 0; i < segments.length; i++) {
+                long first = (long) i * SEGMENT_RECORDS;
+                long records = Math.min(SEGMENT_RECORDS, size - first);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * RECORD_SIZE,
+                        records * RECORD_SIZE);
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+
+    /**
+     * @return the records in the log
+     */
+    public long size() {
+        return size;
+    }
+
+    public DetectionRecord get(long index) {
+        MappedByteBuffer segment = segment(index);
+        int offset = offset(index);
+        return new DetectionRecord(segment.getLong(offset), segment.getLong(offset + 8),
+                segment.getInt(offset + 16), segment.getFloat(offset + 20),
+                segment.getInt(offset + 24), segment.getInt(offset + 28),
+                segment.getInt(offset + 32), segment.getInt(offset + 36));
+    }
+
+    /**
+     * @return the frame of the record, without reading the rest of it
+     */
+    public long getFrame(long index) {
+        return segment(index).getLong(offset(index));
+    }
+
+    /**
+     * @return the index of the first record of the frame or of the first
+     * frame after it, {@link #size()} if there is none
+     */
+    public long indexOf(long frame) {
+        long low = 0;
+        long high = size;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (getFrame(middle) < frame) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the detections of the frame, empty if none were logged
+     */
+    public List<DetectionRecord> getDetections(long frame) {
+        List<DetectionRecord> detections = new ArrayList<>();
+        scan(frame, frame + 1, detections::add);
+        return detections;
+    }
+
+    /**
+     * Passes the detections of the frames from {@code fromFrame} up to, not
+     * including, {@code toFrame} in order.
+     */
+    public void scan(long fromFrame, long toFrame, Consumer<DetectionRecord> consumer) {
+        for (long index = indexOf(fromFrame); index < size && getFrame(index) < toFrame; index++) {
+            consumer.accept(get(index));
+        }
+    }
+
+    private MappedByteBuffer segment(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Record " + index + " of " + size);
+        }
+        return segments[(int) (index / SEGMENT_RECORDS)];
+    }
+
+    private static int offset(long index) {
+        return (int) (index % SEGMENT_RECORDS) * RECORD_SIZE;
+    }
+}
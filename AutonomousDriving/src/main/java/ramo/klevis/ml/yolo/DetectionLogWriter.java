@@ -0,0 +1,178 @@
+package ramo.klevis.ml.yolo;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Appends detections to a binary log that {@link DetectionLogReader} reads
+ * back without running the detection again. The file is little endian, a
+ * 16 byte header followed by one 40 byte record per detected object:
+ * <pre>
+ * header: int magic "YDL1", short version, short record size, long record count
+ * record: long frame, long timestamp in microseconds, int class, float confidence,
+ *         int x1, int y1, int x2, int y2
+ * </pre>
+ * Frames must be appended in order, so records are sorted by frame and the
+ * reader finds a frame by binary search. Frames without detections have no
+ * records.
+ * <p>
+ * Records are written into chunks of the file mapped into memory, the count
+ * in the header is raised only after all records of a frame are written. A
+ * crashed writer therefore leaves whole frames behind, and appending to an
+ * existing log continues after its last counted record.
+ */
+public class DetectionLogWriter implements FrameSink {
+
+    static final int MAGIC = 0x59444C31;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int COUNT_OFFSET = 8;
+    static final int RECORD_SIZE = 40;
+
+    private static final int CHUNK_RECORDS = 1 << 16;
+
+    private final File file;
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer chunk;
+    private long chunkStart;
+    private long count;
+    private long lastFrame = -1;
+
+    public DetectionLogWriter(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Stores the timestamp the frame was decoded with, which stays right for
+     * variable frame rates and after frames the decoder lost.
+     */
+    @Override
+    public void write(long frameNumber, long timestamp, Mat image, List<Detection> detections) throws IOException {
+        append(frameNumber, timestamp, detections);
+    }
+
+    /**
+     * @param frame      the number of the frame, not lower than the frame appended before
+     * @param timestamp  the position of the frame in the video, in microseconds
+     * @param detections the objects detected in the frame
+     * @throws IOException if the log can not be opened or is not a detection log
+     */
+    public void append(long frame, long timestamp, List<Detection> detections) throws IOException {
+        if (frame < lastFrame) {
+            throw new IllegalArgumentException("Frame " + frame + " appended after frame " + lastFrame);
+        }
+        if (channel == null) {
+            open();
+        }
+        for (Detection detection : detections) {
+            if (chunk == null || count - chunkStart == CHUNK_RECORDS) {
+                mapChunk();
+            }
+            int offset = (int) (count - chunkStart) * RECORD_SIZE;
+            chunk.putLong(offset, frame);
+            chunk.putLong(offset + 8, timestamp);
+            chunk.putInt(offset + 16, detection.getPredictedClass());
+            chunk.putFloat(offset + 20, (float) detection.getConfidence());
+            chunk.putInt(offset + 24, detection.getX1());
+            chunk.putInt(offset + 28, detection.getY1());
+            chunk.putInt(offset + 32, detection.getX2());
+            chunk.putInt(offset + 36, detection.getY2());
+            count++;
+        }
+        header.putLong(COUNT_OFFSET, count);
+        lastFrame = frame;
+    }
+
+    /**
+     * @return the records in the log
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Flushes the log and cuts off the mapped space behind the last record.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            if (chunk != null) {
+                chunk.force();
+            }
+            header.force();
+            chunk = null;
+            header = null;
+            channel.truncate(HEADER_SIZE + count * RECORD_SIZE);
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file.toPath(), CREATE, READ, WRITE);
+        try {
+            boolean empty = channel.size() == 0;
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (empty) {
+                header.putInt(0, MAGIC);
+                header.putShort(4, VERSION);
+                header.putShort(6, (short) RECORD_SIZE);
+                header.putLong(COUNT_OFFSET, 0);
+                return;
+            }
+            checkHeader(header, file);
+            count = header.getLong(COUNT_OFFSET);
+            if (channel.size() < HEADER_SIZE + count * RECORD_SIZE) {
+                throw new IOException(file + " is shorter than its " + count + " records");
+            }
+            if (count > 0) {
+                ByteBuffer last = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                channel.read(last, HEADER_SIZE + (count - 1) * RECORD_SIZE);
+                lastFrame = last.getLong(0);
+            }
+        } catch (IOException | RuntimeException e) {
+            header = null;
+            channel.close();
+            channel = null;
+            throw e;
+        }
+    }
+
+    private void mapChunk() throws IOException {
+        chunkStart = count;
+        chunk = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + chunkStart * RECORD_SIZE,
+                (long) CHUNK_RECORDS * RECORD_SIZE);
+        chunk.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static void checkHeader(ByteBuffer header, File file) throws IOException {
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a detection log");
+        }
+        if (header.getShort(4) != VERSION || header.getShort(6) != RECORD_SIZE) {
+            throw new IOException(file + " has unsupported version " + header.getShort(4)
+                    + " with records of " + header.getShort(6) + " bytes");
+        }
+    }
+}
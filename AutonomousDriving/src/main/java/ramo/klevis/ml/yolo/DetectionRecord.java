@@ -0,0 +1,34 @@
+package ramo.klevis.ml.yolo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * One detection read back from a {@link DetectionLogReader}.
+ */
+@Getter
+@AllArgsConstructor
+public class DetectionRecord {
+    private final long frame;
+    /**
+     * The position of the frame in the video, in microseconds.
+     */
+    private final long timestamp;
+    private final int predictedClass;
+    private final float confidence;
+    private final int x1;
+    private final int y1;
+    private final int x2;
+    private final int y2;
+
+    @Override
+    public String toString() {
+        return "DetectionRecord{" +
+                "frame=" + frame +
+                ", timestamp=" + timestamp +
+                ", class=" + predictedClass +
+                ", confidence=" + confidence +
+                ", box=" + x1 + "," + y1 + "," + x2 + "," + y2 +
+                '}';
+    }
+}
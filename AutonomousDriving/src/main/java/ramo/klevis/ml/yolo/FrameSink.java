@@ -0,0 +1,33 @@
+package ramo.klevis.ml.yolo;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives the frames of a {@link VideoPlayer} in order, after the boxes are
+ * drawn, together with the objects detected in them. Called from the
+ * renderer thread only.
+ */
+public interface FrameSink extends Closeable {
+
+    /**
+     * Called once before the first frame.
+     *
+     * @param width     the width of the frames
+     * @param height    the height of the frames
+     * @param frameRate the frame rate of the video
+     */
+    default void start(int width, int height, double frameRate) throws IOException {
+    }
+
+    /**
+     * @param frameNumber the number of the frame in the video, counting from zero
+     * @param timestamp   the position of the frame in the video as decoded, in microseconds
+     * @param image       the frame with the boxes drawn, only valid during the call
+     * @param detections  the objects whose boxes are drawn
+     */
+    void write(long frameNumber, long timestamp, Mat image, List<Detection> detections) throws IOException;
+}
@@ -0,0 +1,248 @@
+package ramo.klevis.ml.yolo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.layers.objdetect.DetectedObject;
+import org.deeplearning4j.nn.layers.objdetect.Yolo2OutputLayer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the detections of many video streams on one model as mini-batches.
+ * Each stream submits its prepared frame and gets a future for the objects
+ * found in it. A single inference thread takes the first waiting frame,
+ * collects further frames until the batch is full or the time window has
+ * passed, concatenates them into one {@code [N, 3, height, width]} input and
+ * runs one forward pass for all of them. The detected objects go back to the
+ * stream they came from by their example number.
+ * <p>
+ * Every scheduler serves one input size, so a model used at several speeds,
+ * as a {@link Yolo} with a {@link SpeedController} does, has a scheduler and an
+ * inference thread per speed. A {@link ComputationGraph} keeps its activations
+ * in its layers and can not run two forward passes at once, so every pass
+ * holds the lock of the model: streams sharing a network never run it
+ * concurrently, whatever their speed. One forward pass over eight frames takes
+ * far less than eight passes over one, which is what makes monitoring many
+ * feeds on one machine affordable.
+ */
+@Slf4j
+public class InferenceScheduler implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 8;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 5;
+    public static final double DEFAULT_DETECTION_THRESHOLD = 0.5;
+
+    private static final Map<ComputationGraph, Map<Speed, InferenceScheduler>> SHARED = new IdentityHashMap<>();
+
+    private final ComputationGraph model;
+    private final Yolo2OutputLayer outputLayer;
+    private final Speed speed;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final double detectionThreshold;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param model              the network, only run while holding its lock
+     * @param speed              the input size every submitted frame has
+     * @param maxBatchSize       the most frames run in one forward pass
+     * @param maxWaitMillis      how long the first frame of a batch waits for others
+     * @param detectionThreshold the confidence an object needs to be reported
+     */
+    public InferenceScheduler(ComputationGraph model, Speed speed, int maxBatchSize, long maxWaitMillis,
+                              double detectionThreshold) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive but was " + maxBatchSize);
+        }
+        if (maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Wait must not be negative but was " + maxWaitMillis);
+        }
+        this.model = model;
+        this.outputLayer = (Yolo2OutputLayer) model.getOutputLayer(0);
+        this.speed = speed;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.detectionThreshold = detectionThreshold;
+        this.worker = new Thread(this::run, "yolo-inference-" + speed.name().toLowerCase());
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * @return the scheduler all streams running the model at the speed share,
+     * created with the default batch size, window and threshold on first use
+     */
+    public static synchronized InferenceScheduler shared(ComputationGraph model, Speed speed) {
+        return SHARED.computeIfAbsent(model, key -> new EnumMap<>(Speed.class))
+                .computeIfAbsent(speed, key -> new InferenceScheduler(model, speed,
+                        DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_WAIT_MILLIS, DEFAULT_DETECTION_THRESHOLD));
+    }
+
+    /**
+     * @param image a prepared frame of shape {@code [1, 3, height, width]}
+     * @return completes with the objects found in the frame, in grid units
+     */
+    public CompletableFuture<List<DetectedObject>> detect(INDArray image) {
+        int[] expected = {1, 3, speed.height, speed.width};
+        if (!Arrays.equals(image.shape(), expected)) {
+            throw new IllegalArgumentException("Expected a frame of shape " + Arrays.toString(expected)
+                    + " but was " + Arrays.toString(image.shape()));
+        }
+        if (closed) {
+            throw new IllegalStateException("Inference scheduler is closed");
+        }
+        Request request = new Request(image);
+        requests.add(request);
+        if (closed && requests.remove(request)) {
+            request.result.completeExceptionally(new IllegalStateException("Inference scheduler is closed"));
+        }
+        return request.result;
+    }
+
+    /**
+     * @return how many forward passes ran so far
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return how many frames were detected so far
+     */
+    public long getFrames() {
+        return frames.get();
+    }
+
+    public double getAverageBatchSize() {
+        long count = batches.get();
+        return count == 0 ? 0 : (double) frames.get() / count;
+    }
+
+    public Speed getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Stops the inference thread, frames still waiting fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+        unregister();
+    }
+
+    @Override
+    public String toString() {
+        return "InferenceScheduler{" +
+                "speed=" + speed +
+                ", batches=" + getBatches() +
+                ", frames=" + getFrames() +
+                ", averageBatchSize=" + String.format("%.2f", getAverageBatchSize()) +
+                '}';
+    }
+
+    /**
+     * Runs batches until closed. Whatever ends the thread, the scheduler is
+     * closed, no longer shared and every frame still waiting fails, so no
+     * caller waits for a dead thread.
+     */
+    private void run() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        Throwable failure = new IllegalStateException("Inference scheduler is closed");
+        try {
+            while (!closed) {
+                batch.add(requests.take());
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    Request next = requests.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                detect(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            log.info("Inference thread for " + speed + " stopped");
+        } catch (Throwable e) {
+            log.error("Inference thread for " + speed + " died", e);
+            failure = new IllegalStateException("Inference thread died", e);
+        } finally {
+            closed = true;
+            unregister();
+            batch.addAll(requests);
+            requests.clear();
+            for (Request request : batch) {
+                request.result.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private void detect(List<Request> batch) {
+        try {
+            INDArray[] images = new INDArray[batch.size()];
+            for (int i = 0; i < images.length; i++) {
+                images[i] = batch.get(i).image;
+            }
+            INDArray input = images.length == 1 ? images[0] : Nd4j.concat(0, images);
+            List<DetectedObject> found;
+            synchronized (model) {
+                INDArray results = model.outputSingle(input);
+                found = outputLayer.getPredictedObjects(results, detectionThreshold);
+            }
+            List<List<DetectedObject>> detected = new ArrayList<>(images.length);
+            for (int i = 0; i < images.length; i++) {
+                detected.add(new ArrayList<>());
+            }
+            for (DetectedObject detectedObject : found) {
+                detected.get(detectedObject.getExampleNumber()).add(detectedObject);
+            }
+            batches.incrementAndGet();
+            frames.addAndGet(images.length);
+            for (int i = 0; i < images.length; i++) {
+                batch.get(i).result.complete(detected.get(i));
+            }
+        } catch (Throwable e) {
+            log.error("Failed to detect a batch of " + batch.size() + " frames", e);
+            for (Request request : batch) {
+                request.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void unregister() {
+        synchronized (InferenceScheduler.class) {
+            Map<Speed, InferenceScheduler> schedulers = SHARED.get(model);
+            if (schedulers != null) {
+                schedulers.remove(speed, this);
+            }
+        }
+    }
+
+    private static class Request {
+        private final INDArray image;
+        private final CompletableFuture<List<DetectedObject>> result = new CompletableFuture<>();
+
+        Request(INDArray image) {
+            this.image = image;
+        }
+    }
+}
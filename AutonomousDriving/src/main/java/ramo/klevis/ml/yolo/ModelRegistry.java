@@ -0,0 +1,136 @@
+package ramo.klevis.ml.yolo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.ModelSerializer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the pretrained models in the background, each once per process. The
+ * first load of a model goes through the model zoo, which downloads the zip,
+ * verifies its checksum and restores it together with the training state.
+ * The registry then writes the bare network into its own cache directory, so
+ * later starts restore it straight from there and skip the verification and
+ * the updater.
+ * <p>
+ * A failed load is not remembered, the next call tries again.
+ */
+@Slf4j
+public class ModelRegistry {
+
+    public static final Path DEFAULT_CACHE_DIRECTORY =
+            Paths.get(System.getProperty("user.home"), ".deeplearning4j", "inference-cache");
+
+    private static final ModelRegistry DEFAULT = new ModelRegistry(DEFAULT_CACHE_DIRECTORY,
+            Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "model-loader");
+                thread.setDaemon(true);
+                return thread;
+            }));
+
+    private final Path cacheDirectory;
+    private final Executor executor;
+    private final ConcurrentHashMap<YoloModel, CompletableFuture<ComputationGraph>> models = new ConcurrentHashMap<>();
+
+    /**
+     * @param cacheDirectory where the restored networks are kept between starts
+     * @param executor       runs the loads
+     */
+    public ModelRegistry(Path cacheDirectory, Executor executor) {
+        this.cacheDirectory = cacheDirectory;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the registry shared by the whole application
+     */
+    public static ModelRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Starts loading the model unless it is loaded or loading already.
+     *
+     * @param model the model
+     * @return completes with the network, the same instance for every call
+     */
+    public CompletableFuture<ComputationGraph> load(YoloModel model) {
+        CompletableFuture<ComputationGraph> loading = models.get(model);
+        if (loading != null) {
+            return loading;
+        }
+        CompletableFuture<ComputationGraph> created = new CompletableFuture<>();
+        loading = models.putIfAbsent(model, created);
+        if (loading != null) {
+            return loading;
+        }
+        executor.execute(() -> {
+            try {
+                created.complete(loadOrRestore(model));
+            } catch (Exception | Error e) {
+                models.remove(model, created);
+                created.completeExceptionally(e);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * @param model the model
+     * @return the file the network of the model is cached in
+     */
+    public Path getCacheFile(YoloModel model) {
+        return cacheDirectory.resolve(model.name() + ".zip");
+    }
+
+    private ComputationGraph loadOrRestore(YoloModel model) throws IOException {
+        long start = System.currentTimeMillis();
+        Path cacheFile = getCacheFile(model);
+        if (Files.isRegularFile(cacheFile)) {
+            try {
+                ComputationGraph graph = ModelSerializer.restoreComputationGraph(cacheFile.toFile(), false);
+                log.info("Restored " + model + " from " + cacheFile + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+                return graph;
+            } catch (Exception e) {
+                log.warn("Ignoring the unreadable cached model " + cacheFile, e);
+            }
+        }
+        ComputationGraph graph = (ComputationGraph) model.zooModel().initPretrained();
+        log.info("Loaded " + model + " from the model zoo in " + (System.currentTimeMillis() - start) + " ms");
+        writeCache(graph, cacheFile);
+        return graph;
+    }
+
+    /**
+     * Writes to a temporary file first, so a concurrent start never sees half
+     * a model. The cache only saves time, a failure to write it is logged.
+     */
+    private void writeCache(ComputationGraph graph, Path cacheFile) {
+        Path temporary = null;
+        try {
+            Files.createDirectories(cacheDirectory);
+            temporary = Files.createTempFile(cacheDirectory, cacheFile.getFileName().toString(), ".tmp");
+            ModelSerializer.writeModel(graph, temporary.toFile(), false);
+            Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to cache the model in " + cacheFile, e);
+            try {
+                if (temporary != null) {
+                    Files.deleteIfExists(temporary);
+                }
+            } catch (IOException ignored) {
+                // nothing left to do
+            }
+        }
+    }
+}
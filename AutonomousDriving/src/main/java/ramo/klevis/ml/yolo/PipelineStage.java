@@ -0,0 +1,97 @@
+package ramo.klevis.ml.yolo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * The counters of one stage of the {@link VideoPlayer} pipeline and the depth
+ * of the queue or slot it takes its frames from. Updated by the stage's thread, read
+ * from any thread.
+ */
+public class PipelineStage {
+
+    private final String name;
+    private final IntSupplier queueDepth;
+    private final int capacity;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private volatile long startNanos = System.nanoTime();
+
+    PipelineStage(String name, IntSupplier queueDepth, int capacity) {
+        this.name = name;
+        this.queueDepth = queueDepth;
+        this.capacity = capacity;
+    }
+
+    void started() {
+        startNanos = System.nanoTime();
+    }
+
+    void processed() {
+        processed.incrementAndGet();
+    }
+
+    void dropped() {
+        dropped.incrementAndGet();
+    }
+
+    void skipped() {
+        skipped.incrementAndGet();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the frames waiting for the stage, zero for the first stage
+     */
+    public int getQueueDepth() {
+        return queueDepth == null ? 0 : queueDepth.getAsInt();
+    }
+
+    public int getQueueCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the frames the stage passed on
+     */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * @return the frames thrown away waiting for the stage
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the frames the stage passed on without working on them
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return the frames passed on per second since the stage started
+     */
+    public double getThroughput() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds <= 0 ? 0 : getProcessed() / seconds;
+    }
+
+    @Override
+    public String toString() {
+        return name + "{" +
+                "queue=" + getQueueDepth() + "/" + capacity +
+                ", processed=" + getProcessed() +
+                ", dropped=" + getDropped() +
+                ", skipped=" + getSkipped() +
+                ", fps=" + String.format("%.1f", getThroughput()) +
+                '}';
+    }
+}
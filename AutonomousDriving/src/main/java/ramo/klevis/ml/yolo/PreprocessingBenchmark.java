@@ -0,0 +1,85 @@
+package ramo.klevis.ml.yolo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.datavec.image.loader.NativeImageLoader;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.preprocessor.ImagePreProcessingScaler;
+import ramo.klevis.ml.image.FramePreprocessor;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Measures the time and the Java heap allocated per frame by
+ * {@link FramePreprocessor} next to the per-frame converter, loader and
+ * scaler it replaced, for every {@link Speed}. Runs on a random 1280x720
+ * frame, the number of frames per measurement is the optional argument.
+ * <p>
+ * It stays out of the JMH benchmarks module because DL4J and JavaCV here are
+ * older than the versions the edge detection there depends on.
+ */
+@Slf4j
+public class PreprocessingBenchmark {
+
+    private static final int DEFAULT_FRAMES = 500;
+    private static final int FRAME_WIDTH = 1280;
+    private static final int FRAME_HEIGHT = 720;
+
+    public static void main(String[] args) throws IOException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FRAMES;
+        Frame frame = randomFrame();
+        for (Speed speed : Speed.values()) {
+            FramePreprocessor preprocessor = FramePreprocessor.forSize(speed.width, speed.height);
+            measure(speed, "converters per frame", frames, () -> prepareWithConverters(frame, speed));
+            measure(speed, "FramePreprocessor", frames, () -> preprocessor.prepare(frame));
+        }
+    }
+
+    private static void measure(Speed speed, String name, int frames, Preparation preparation) throws IOException {
+        for (int i = 0; i < frames / 10 + 1; i++) {
+            preparation.prepare();
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            preparation.prepare();
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        log.info(String.format("%-6s %-20s %8.3f ms/frame %12d bytes/frame",
+                speed.name(), name, elapsed / 1e6 / frames, allocated / frames));
+    }
+
+    /**
+     * What Yolo did before {@link FramePreprocessor}.
+     */
+    private static INDArray prepareWithConverters(Frame frame, Speed speed) throws IOException {
+        BufferedImage convert = new Java2DFrameConverter().convert(frame);
+        NativeImageLoader loader = new NativeImageLoader(speed.height, speed.width, 3);
+        ImagePreProcessingScaler imagePreProcessingScaler = new ImagePreProcessingScaler(0, 1);
+        INDArray indArray = loader.asMatrix(convert);
+        imagePreProcessingScaler.transform(indArray);
+        return indArray;
+    }
+
+    private static Frame randomFrame() {
+        BufferedImage image = new BufferedImage(FRAME_WIDTH, FRAME_HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        Random random = new Random(42);
+        for (int y = 0; y < FRAME_HEIGHT; y++) {
+            for (int x = 0; x < FRAME_WIDTH; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return new Java2DFrameConverter().convert(image).clone();
+    }
+
+    private interface Preparation {
+        INDArray prepare() throws IOException;
+    }
+}
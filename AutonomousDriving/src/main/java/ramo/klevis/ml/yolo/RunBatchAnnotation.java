@@ -0,0 +1,78 @@
+package ramo.klevis.ml.yolo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Annotates videos from the command line without a display:
+ * {@code RunBatchAnnotation [--speed FAST|MEDIUM|SLOW] [--yolo2] [--parallel n] [--no-video]
+ * [--detections jsonl|csv|bin|none] <output directory> <video>...}.
+ * Prints the frames per second of every video and of the whole batch.
+ */
+public class RunBatchAnnotation {
+
+    private static final String USAGE = "Usage: RunBatchAnnotation [--speed FAST|MEDIUM|SLOW] [--yolo2] [--parallel n]"
+            + " [--no-video] [--detections jsonl|csv|bin|none] <output directory> <video>...";
+
+    public static void main(String[] args) throws Exception {
+        Speed speed = Speed.MEDIUM;
+        boolean yolo2 = false;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        boolean writeVideo = true;
+        String detections = "jsonl";
+        List<String> arguments = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--speed":
+                    speed = Speed.valueOf(value(args, ++i));
+                    break;
+                case "--yolo2":
+                    yolo2 = true;
+                    break;
+                case "--parallel":
+                    parallelism = Integer.parseInt(value(args, ++i));
+                    break;
+                case "--no-video":
+                    writeVideo = false;
+                    break;
+                case "--detections":
+                    detections = value(args, ++i);
+                    break;
+                default:
+                    arguments.add(args[i]);
+            }
+        }
+        if (arguments.size() < 2) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        List<File> videos = new ArrayList<>();
+        for (String video : arguments.subList(1, arguments.size())) {
+            videos.add(new File(video));
+        }
+        BatchAnnotation batch = new BatchAnnotation(speed, yolo2, parallelism, writeVideo,
+                "none".equals(detections) ? null : detections);
+        long start = System.currentTimeMillis();
+        List<AnnotationResult> results = batch.annotate(videos, new File(arguments.get(0)));
+        long elapsed = System.currentTimeMillis() - start;
+        long frames = 0;
+        int failed = 0;
+        for (AnnotationResult result : results) {
+            System.out.println(result);
+            frames += result.getFrames();
+            failed += result.isFailed() ? 1 : 0;
+        }
+        System.out.println(String.format("Annotated %d videos, %d failed, %d frames in %.1f s, %.1f frames/s overall",
+                results.size() - failed, failed, frames, elapsed / 1000d, elapsed == 0 ? 0 : frames * 1000d / elapsed));
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        return args[index];
+    }
+}
@@ -0,0 +1,134 @@
+package ramo.klevis.ml.yolo;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+
+/**
+ * Switches the input size of a detector at runtime so it keeps up a target
+ * detection rate. The prediction thread records every detection time
+ * together with the frame counters of its player. Once a window of
+ * detections is full the controller looks at a percentile of their latency
+ * and at the share of frames dropped meanwhile:
+ * <ul>
+ * <li>above the latency budget, or dropping more than allowed, it steps to
+ * the next faster {@link Speed}</li>
+ * <li>when the latency scaled by the pixels of the next slower speed would
+ * still fit well into the budget, and frames are not dropped more than
+ * allowed, it steps to the slower, more accurate speed</li>
+ * </ul>
+ * The gap between the two conditions, and starting a new window after every
+ * switch, keep it from flapping between two neighbouring speeds.
+ */
+@Slf4j
+public class SpeedController {
+
+    public static final long DEFAULT_TARGET_MILLIS = 200;
+    public static final int DEFAULT_WINDOW = 20;
+    public static final double DEFAULT_PERCENTILE = 0.9;
+    public static final double DEFAULT_MAX_DROP_RATE = 0.9;
+
+    /**
+     * The share of the budget the latency predicted for a slower speed may use.
+     */
+    private static final double SLOWER_HEADROOM = 0.8;
+
+    private final long targetMillis;
+    private final double percentile;
+    private final double maxDropRate;
+    private final long[] latencies;
+    private int recorded;
+    private long offeredAtWindowStart;
+    private long droppedAtWindowStart;
+    private volatile Speed speed;
+
+    /**
+     * @param initial      the speed to start with
+     * @param targetMillis the longest a detection should take
+     */
+    public SpeedController(Speed initial, long targetMillis) {
+        this(initial, targetMillis, DEFAULT_WINDOW, DEFAULT_PERCENTILE, DEFAULT_MAX_DROP_RATE);
+    }
+
+    /**
+     * @param initial      the speed to start with
+     * @param targetMillis the longest a detection should take
+     * @param window       how many detections each decision looks at
+     * @param percentile   the latency percentile held against the target, between 0 and 1
+     * @param maxDropRate  the share of frames that may be dropped, between 0 and 1
+     */
+    public SpeedController(Speed initial, long targetMillis, int window, double percentile, double maxDropRate) {
+        if (targetMillis <= 0) {
+            throw new IllegalArgumentException("Target must be positive but was " + targetMillis);
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be positive but was " + window);
+        }
+        if (percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("Percentile must be in (0, 1] but was " + percentile);
+        }
+        if (maxDropRate < 0 || maxDropRate > 1) {
+            throw new IllegalArgumentException("Drop rate must be in [0, 1] but was " + maxDropRate);
+        }
+        this.speed = initial;
+        this.targetMillis = targetMillis;
+        this.percentile = percentile;
+        this.maxDropRate = maxDropRate;
+        this.latencies = new long[window];
+    }
+
+    /**
+     * Records a detection done at the current speed.
+     *
+     * @param latencyMillis how long the detection took
+     * @param offered       the frames offered to the detector so far
+     * @param dropped       the frames dropped by the detector so far
+     * @return the speed for the next detection
+     */
+    public synchronized Speed record(long latencyMillis, long offered, long dropped) {
+        if (recorded == 0) {
+            offeredAtWindowStart = offered;
+            droppedAtWindowStart = dropped;
+        }
+        latencies[recorded++] = latencyMillis;
+        if (recorded < latencies.length) {
+            return speed;
+        }
+        recorded = 0;
+        long latency = getLatencyPercentile();
+        long offeredInWindow = offered - offeredAtWindowStart;
+        double dropRate = offeredInWindow <= 0 ? 0 : (double) (dropped - droppedAtWindowStart) / offeredInWindow;
+        Speed next = speed;
+        if ((latency > targetMillis || dropRate > maxDropRate) && speed.ordinal() > 0) {
+            next = Speed.values()[speed.ordinal() - 1];
+        } else if (dropRate <= maxDropRate && speed.ordinal() < Speed.values().length - 1) {
+            Speed slower = Speed.values()[speed.ordinal() + 1];
+            double pixels = (double) slower.width * slower.height / (speed.width * speed.height);
+            if (latency * pixels <= targetMillis * SLOWER_HEADROOM) {
+                next = slower;
+            }
+        }
+        if (next != speed) {
+            log.info("Switching from " + speed.name() + " to " + next.name() + ", "
+                    + (int) (percentile * 100) + "th percentile " + latency + " ms, target " + targetMillis
+                    + " ms, dropped " + Math.round(dropRate * 100) + "% of the frames");
+            speed = next;
+        }
+        return speed;
+    }
+
+    public Speed getSpeed() {
+        return speed;
+    }
+
+    public long getTargetMillis() {
+        return targetMillis;
+    }
+
+    private long getLatencyPercentile() {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(index, 0)];
+    }
+}
@@ -0,0 +1,54 @@
+package ramo.klevis.ml.yolo;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.FrameRecorder;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Encodes the annotated frames into a video file through FFmpeg, the format
+ * and codec follow the file suffix.
+ */
+public class VideoFileSink implements FrameSink {
+
+    private final File file;
+    private final OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+    private FFmpegFrameRecorder recorder;
+
+    public VideoFileSink(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void start(int width, int height, double frameRate) throws IOException {
+        recorder = new FFmpegFrameRecorder(file, width, height, 0);
+        if (frameRate > 0) {
+            recorder.setFrameRate(frameRate);
+        }
+        recorder.start();
+    }
+
+    @Override
+    public void write(long frameNumber, long timestamp, Mat image, List<Detection> detections) throws IOException {
+        recorder.record(converter.convert(image));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.stop();
+            recorder.release();
+        } catch (FrameRecorder.Exception e) {
+            throw new IOException("Failed to finish " + file, e);
+        } finally {
+            recorder = null;
+        }
+    }
+}
@@ -6,55 +6,212 @@ import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameGrabber;
 import org.bytedeco.javacv.OpenCVFrameConverter;
+import ramo.klevis.ml.concurrent.LatestFrameSlot;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.bytedeco.javacpp.opencv_highgui.*;
 
+/**
+ * Plays a video with the detected objects as a pipeline of three threads: a
+ * grabber decoding frames, an inference thread detecting objects on them and
+ * a renderer drawing the boxes and showing the frames at the frame rate of
+ * the video. The stages are connected by bounded queues, a
+ * {@link BackpressurePolicy} decides what happens when the detection falls
+ * behind. With {@link BackpressurePolicy#DROP_OLDEST} the grabber hands its
+ * frames over through a {@link LatestFrameSlot} instead, so the detection
+ * always gets the newest one and every frame replaced counts as dropped. Except with {@link BackpressurePolicy#BLOCK} the grabber decodes
+ * at the pace of the frame timestamps, so frames are dropped or skipped
+ * against real time and the video plays at its own speed. Decoded frames are
+ * copied into a fixed set of reused images, so memory does not grow with the
+ * video.
+ * <p>
+ * A headless player shows nothing and renders as fast as the frames come,
+ * for running on a server. With {@link BackpressurePolicy#BLOCK} it runs
+ * through the video as fast as the detection allows. {@link #getStages()} exposes the queue depth and
+ * throughput of every stage.
+ */
 @Slf4j
 public class VideoPlayer {
 
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+    public static final int DEFAULT_SKIP = 3;
+
     private static final String AUTONOMOUS_DRIVING_RAMOK_TECH = "Autonomous Driving(ramok.tech)";
+    private static final long POLL_MILLIS = 100;
+    private static final int STATS_INTERVAL_FRAMES = 100;
+    private static final VideoFrame END_OF_VIDEO = new VideoFrame();
+
     private String windowName;
     private volatile boolean stop = false;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile long playedMicros;
     private Yolo yolo;
     private final OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
     public final static AtomicInteger atomicInteger = new AtomicInteger();
 
+    private final BackpressurePolicy policy;
+    private final int skip;
+    private final boolean headless;
+    private final BlockingQueue<VideoFrame> free;
+    private final BlockingQueue<VideoFrame> toInference;
+    private final LatestFrameSlot<VideoFrame> latestFrame = new LatestFrameSlot<>();
+    private final BlockingQueue<VideoFrame> toRenderer;
+    private final PipelineStage grabberStage;
+    private final PipelineStage inferenceStage;
+    private final PipelineStage rendererStage;
+
+    public VideoPlayer() {
+        this(BackpressurePolicy.DROP_OLDEST, DEFAULT_SKIP, DEFAULT_QUEUE_CAPACITY, false);
+    }
+
+    /**
+     * @param policy        what to do with frames the detection cannot keep up with
+     * @param skip          with {@link BackpressurePolicy#SKIP_N} every how many frames one is detected
+     * @param queueCapacity how many frames may wait between two stages
+     * @param headless      do not show the frames
+     */
+    public VideoPlayer(BackpressurePolicy policy, int skip, int queueCapacity, boolean headless) {
+        if (skip < 1) {
+            throw new IllegalArgumentException("Skip must be positive but was " + skip);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive but was " + queueCapacity);
+        }
+        this.policy = policy;
+        this.skip = skip;
+        this.headless = headless;
+        // both queues full and one frame in the hands of every stage
+        int frames = 2 * queueCapacity + 3;
+        this.free = new ArrayBlockingQueue<>(frames);
+        for (int i = 0; i < frames; i++) {
+            free.add(new VideoFrame());
+        }
+        // one more for the end of the video
+        this.toInference = new ArrayBlockingQueue<>(queueCapacity + 1);
+        this.toRenderer = new ArrayBlockingQueue<>(queueCapacity + 1);
+        this.grabberStage = new PipelineStage("grabber", null, 0);
+        this.inferenceStage = policy == BackpressurePolicy.DROP_OLDEST
+                ? new PipelineStage("inference", () -> latestFrame.isEmpty() ? 0 : 1, 1)
+                : new PipelineStage("inference", toInference::size, queueCapacity);
+        this.rendererStage = new PipelineStage("renderer", toRenderer::size, queueCapacity);
+    }
 
     public void startRealTimeVideoDetection(String videoFileName, Speed selectedIndex, boolean yoloModel) throws java.lang.Exception {
+        startRealTimeVideoDetection(videoFileName, selectedIndex, yoloModel, false);
+    }
+
+    /**
+     * Plays the video on the calling thread until it ends or {@link #stop()} is called.
+     *
+     * @param adaptiveSpeed start at the selected speed but let a {@link SpeedController} change it
+     */
+    public void startRealTimeVideoDetection(String videoFileName, Speed selectedIndex, boolean yoloModel,
+                                            boolean adaptiveSpeed) throws java.lang.Exception {
+        startVideoDetection(videoFileName, adaptiveSpeed
+                ? new Yolo(new SpeedController(selectedIndex, SpeedController.DEFAULT_TARGET_MILLIS), yoloModel)
+                : new Yolo(selectedIndex, yoloModel), Collections.emptyList());
+    }
+
+    /**
+     * Plays the video through the detector on the calling thread until it
+     * ends or {@link #stop()} is called, handing every frame to the sinks
+     * after the boxes are drawn. The sinks are closed at the end.
+     * <p>
+     * A failure of the grabber or inference thread stops the player and is
+     * thrown from here once all threads have ended. A failed detection of a
+     * single frame is only logged and the frame gets the previous boxes.
+     */
+    public void startVideoDetection(String videoFileName, Yolo detector, List<FrameSink> sinks) throws Exception {
         log.info("Start detecting video " + videoFileName);
         int id = atomicInteger.incrementAndGet();
         windowName = AUTONOMOUS_DRIVING_RAMOK_TECH + id;
         log.info(windowName);
-        yolo = new Yolo(selectedIndex, yoloModel);
-        startYoloThread();
-        runVideoMainThread(videoFileName, converter);
-    }
-
-    private void runVideoMainThread(String videoFileName, OpenCVFrameConverter.ToMat toMat) throws FrameGrabber.Exception {
-        FFmpegFrameGrabber grabber = initFrameGrabber(videoFileName);
-        while (!stop) {
-            Frame frame = grabber.grab();
-            if (frame == null) {
-                log.info("Stopping");
-                stop();
-                break;
+        yolo = detector;
+        FFmpegFrameGrabber started = null;
+        try {
+            started = initFrameGrabber(videoFileName);
+            for (FrameSink sink : sinks) {
+                sink.start(started.getImageWidth(), started.getImageHeight(), started.getFrameRate());
             }
-            if (frame.image == null) {
-                continue;
+        } catch (IOException e) {
+            if (started != null) {
+                started.stop();
             }
-            yolo.push(frame);
-            opencv_core.Mat mat = toMat.convert(frame);
-            yolo.drawBoundingBoxesRectangles(frame, mat);
-            imshow(windowName, mat);
-            char key = (char) waitKey(20);
-            // Exit this loop on escape:
-            if (key == 27) {
-                stop();
-                break;
+            closeAll(sinks);
+            throw e;
+        }
+        FFmpegFrameGrabber grabber = started;
+        double frameRate = grabber.getFrameRate();
+        Thread grabberThread = new Thread(() -> runGrabber(grabber), "video-grabber-" + id);
+        Thread inferenceThread = new Thread(this::runInference, "video-inference-" + id);
+        grabberStage.started();
+        inferenceStage.started();
+        rendererStage.started();
+        long startNanos = System.nanoTime();
+        grabberThread.start();
+        inferenceThread.start();
+        try {
+            runRenderer(frameRate, sinks);
+        } finally {
+            stop();
+            grabberThread.join();
+            inferenceThread.join();
+            release(toInference);
+            VideoFrame waiting = latestFrame.poll();
+            if (waiting != null && waiting != END_OF_VIDEO) {
+                free.offer(waiting);
+            }
+            release(toRenderer);
+            log.info(String.format("Video finished, %.1f s of video in %.1f s, %s", playedMicros / 1e6,
+                    (System.nanoTime() - startNanos) / 1e9, getStages()));
+            yolo = null;
+            closeAll(sinks);
+        }
+        Throwable failed = failure.get();
+        if (failed instanceof Exception) {
+            throw (Exception) failed;
+        }
+        if (failed != null) {
+            throw (Error) failed;
+        }
+    }
+
+    private static void closeAll(List<FrameSink> sinks) throws IOException {
+        IOException failure = null;
+        for (FrameSink sink : sinks) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                failure = e;
             }
         }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return the grabber, inference and renderer stages, in this order
+     */
+    public List<PipelineStage> getStages() {
+        return Arrays.asList(grabberStage, inferenceStage, rendererStage);
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    public boolean isHeadless() {
+        return headless;
     }
 
     private FFmpegFrameGrabber initFrameGrabber(String videoFileName) throws FrameGrabber.Exception {
@@ -63,26 +220,252 @@ public class VideoPlayer {
         return grabber;
     }
 
-    private void startYoloThread() {
-        Thread thread = new Thread(() -> {
+    private void runGrabber(FFmpegFrameGrabber grabber) {
+        boolean paced = policy != BackpressurePolicy.BLOCK;
+        long number = 0;
+        long firstTimestamp = -1;
+        long startNanos = 0;
+        try {
             while (!stop) {
+                Frame frame = grabber.grab();
+                if (frame == null) {
+                    log.info("Stopping");
+                    break;
+                }
+                if (frame.image == null) {
+                    continue;
+                }
+                if (firstTimestamp < 0) {
+                    firstTimestamp = frame.timestamp;
+                    startNanos = System.nanoTime();
+                }
+                playedMicros = frame.timestamp - firstTimestamp;
+                if (paced && !sleepUntil(startNanos + TimeUnit.MICROSECONDS.toNanos(playedMicros))) {
+                    break;
+                }
+                VideoFrame videoFrame = takeFree();
+                if (videoFrame == null) {
+                    break;
+                }
+                // the grabber overwrites the frame with the next one
+                converter.convert(frame).copyTo(videoFrame.image);
+                videoFrame.number = number;
+                videoFrame.timestamp = frame.timestamp;
+                videoFrame.detect = policy != BackpressurePolicy.SKIP_N || number % skip == 0;
+                number++;
+                if (!handOver(videoFrame)) {
+                    break;
+                }
+                grabberStage.processed();
+            }
+        } catch (Throwable e) {
+            log.error("Failed to grab a frame, stopping", e);
+            fail(e);
+        } finally {
+            handOver(END_OF_VIDEO);
+            try {
+                grabber.stop();
+            } catch (FrameGrabber.Exception e) {
+                log.error("Failed to stop the grabber", e);
+            }
+        }
+    }
+
+    /**
+     * @return false if the player was stopped meanwhile
+     */
+    private boolean handOver(VideoFrame videoFrame) {
+        if (policy != BackpressurePolicy.DROP_OLDEST) {
+            return put(toInference, videoFrame);
+        }
+        VideoFrame replaced = latestFrame.offer(videoFrame);
+        if (replaced != null) {
+            free.offer(replaced);
+            inferenceStage.dropped();
+        }
+        return true;
+    }
+
+    private void runInference() {
+        try {
+            detectFrames();
+        } catch (Throwable e) {
+            log.error("Failed to detect, stopping", e);
+            fail(e);
+        }
+    }
+
+    private void detectFrames() {
+        Yolo.Prediction last = null;
+        while (true) {
+            VideoFrame videoFrame = policy == BackpressurePolicy.DROP_OLDEST ? take(latestFrame) : poll(toInference);
+            if (videoFrame == null) {
+                if (stop) {
+                    break;
+                }
+                continue;
+            }
+            if (videoFrame == END_OF_VIDEO) {
+                put(toRenderer, END_OF_VIDEO);
+                break;
+            }
+            if (videoFrame.detect) {
                 try {
-                    yolo.predictBoundingBoxes();
-                } catch (Exception e) {
-                    //ignoring a thread failure
-                    //it may fail because the frame may be long gone when thread get chance to execute
+                    last = yolo.predict(videoFrame.image, grabberStage.getProcessed(), inferenceStage.getDropped());
+                } catch (IOException e) {
+                    log.error("Failed to detect, showing the last boxes", e);
                 }
+            } else {
+                inferenceStage.skipped();
             }
-            yolo = null;
-            log.info("YOLO Thread Exit");
-        });
-        thread.start();
+            videoFrame.prediction = last;
+            if (!put(toRenderer, videoFrame)) {
+                break;
+            }
+            inferenceStage.processed();
+        }
+    }
+
+    private void runRenderer(double frameRate, List<FrameSink> sinks) throws IOException {
+        long frameNanos = frameRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / frameRate) : 0;
+        long due = System.nanoTime();
+        while (true) {
+            VideoFrame videoFrame = poll(toRenderer);
+            if (videoFrame == null) {
+                if (stop) {
+                    break;
+                }
+                continue;
+            }
+            if (videoFrame == END_OF_VIDEO) {
+                break;
+            }
+            opencv_core.Mat image = videoFrame.image;
+            List<Detection> detections = yolo.getDetections(image.cols(), image.rows(), videoFrame.prediction);
+            yolo.drawBoundingBoxesRectangles(image, detections);
+            for (FrameSink sink : sinks) {
+                sink.write(videoFrame.number, videoFrame.timestamp, image, detections);
+            }
+            if (!headless) {
+                imshow(windowName, videoFrame.image);
+                due = Math.max(due + frameNanos, System.nanoTime());
+                long wait = TimeUnit.NANOSECONDS.toMillis(due - System.nanoTime());
+                char key = (char) waitKey((int) Math.max(wait, 1));
+                // Exit this loop on escape:
+                if (key == 27) {
+                    free.offer(videoFrame);
+                    break;
+                }
+            }
+            free.offer(videoFrame);
+            rendererStage.processed();
+            if (rendererStage.getProcessed() % STATS_INTERVAL_FRAMES == 0) {
+                log.info(getStages().toString());
+            }
+        }
+    }
+
+    /**
+     * @return false if the player was stopped meanwhile
+     */
+    private boolean sleepUntil(long nanos) throws InterruptedException {
+        for (long wait = nanos - System.nanoTime(); wait > 0 && !stop; wait = nanos - System.nanoTime()) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(wait, TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS)));
+        }
+        return !stop;
+    }
+
+    private VideoFrame takeFree() throws InterruptedException {
+        while (!stop) {
+            VideoFrame videoFrame = free.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (videoFrame != null) {
+                return videoFrame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Waits for room unless the player is stopped, the end of the video always gets through.
+     *
+     * @return whether the frame was queued
+     */
+    private boolean put(BlockingQueue<VideoFrame> queue, VideoFrame videoFrame) {
+        try {
+            while (!stop || videoFrame == END_OF_VIDEO) {
+                if (queue.offer(videoFrame, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+                if (stop) {
+                    // make room for the end of the video
+                    VideoFrame dropped = queue.poll();
+                    if (dropped != null && dropped != END_OF_VIDEO) {
+                        free.offer(dropped);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Hands back the frames left over when the player was stopped.
+     */
+    private void release(BlockingQueue<VideoFrame> queue) {
+        for (VideoFrame videoFrame = queue.poll(); videoFrame != null; videoFrame = queue.poll()) {
+            if (videoFrame != END_OF_VIDEO) {
+                free.offer(videoFrame);
+            }
+        }
+    }
+
+    private VideoFrame poll(BlockingQueue<VideoFrame> queue) {
+        try {
+            return queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop = true;
+            return null;
+        }
+    }
+
+    private VideoFrame take(LatestFrameSlot<VideoFrame> slot) {
+        try {
+            return slot.take(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop = true;
+            return null;
+        }
+    }
+
+    /**
+     * Keeps the first failure of a stage for {@link #startVideoDetection} and stops the other stages.
+     */
+    private void fail(Throwable e) {
+        failure.compareAndSet(null, e);
+        stop();
     }
 
     public void stop() {
         if (!stop) {
             stop = true;
-            destroyAllWindows();
+            if (!headless) {
+                destroyAllWindows();
+            }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * A decoded frame on its way through the pipeline.
+     */
+    private static class VideoFrame {
+        private final opencv_core.Mat image = new opencv_core.Mat();
+        private long number;
+        private long timestamp;
+        private boolean detect;
+        private Yolo.Prediction prediction;
+    }
+}
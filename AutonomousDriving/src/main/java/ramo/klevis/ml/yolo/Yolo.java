@@ -1,150 +1,182 @@
 package ramo.klevis.ml.yolo;
 
 import lombok.extern.slf4j.Slf4j;
-import org.bytedeco.javacv.Frame;
-import org.bytedeco.javacv.Java2DFrameConverter;
-import org.datavec.image.loader.NativeImageLoader;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.layers.objdetect.DetectedObject;
-import org.deeplearning4j.nn.layers.objdetect.Yolo2OutputLayer;
 import org.deeplearning4j.nn.layers.objdetect.YoloUtils;
-import org.deeplearning4j.zoo.model.TinyYOLO;
-import org.deeplearning4j.zoo.model.YOLO2;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.dataset.api.preprocessor.ImagePreProcessingScaler;
+import ramo.klevis.ml.image.FramePreprocessor;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import static org.bytedeco.javacpp.opencv_core.*;
+import static org.bytedeco.javacpp.opencv_imgcodecs.imread;
 import static org.bytedeco.javacpp.opencv_imgproc.putText;
 import static org.bytedeco.javacpp.opencv_imgproc.rectangle;
 
 @Slf4j
 public class Yolo {
 
-    private static final double DETECTION_THRESHOLD = 0.5;
-    //more accurate but slower
-    public static ComputationGraph YOLO_V2_MODEL_PRE_TRAINED;
-    //less accurate but faster
-    public static final ComputationGraph TINY_YOLO_V2_MODEL_PRE_TRAINED;
-
-    static {
-        try {
-            TINY_YOLO_V2_MODEL_PRE_TRAINED = (ComputationGraph) TinyYOLO.builder().build().initPretrained();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    private final Stack<Frame> stack = new Stack();
-    private final Speed selectedSpeed;
-    private volatile List<DetectedObject> predictedObjects;
+    private final SpeedController speedController;
+    private final Map<Speed, InferenceScheduler> schedulers = new EnumMap<>(Speed.class);
+    private volatile Speed selectedSpeed;
     private HashMap<Integer, String> map;
     private HashMap<String, String> groupMap;
-    private ComputationGraph model;
 
+    /**
+     * Waits for the model from {@link ModelRegistry#getDefault()}, which
+     * returns at once when it was loaded ahead of time.
+     */
     public Yolo(Speed selectedSpeed, boolean yolo) throws IOException {
+        this(selectedSpeed, yolo, awaitModel(yolo ? YoloModel.YOLO2 : YoloModel.TINY_YOLO));
+    }
+
+    /**
+     * Detects through the {@link InferenceScheduler#shared shared scheduler}
+     * of the model and speed, so every player using them is batched together.
+     */
+    public Yolo(Speed selectedSpeed, boolean yolo, ComputationGraph model) throws IOException {
+        this(selectedSpeed, yolo, model, null);
+    }
+
+    /**
+     * Switches the speed at runtime as the controller decides. The model is
+     * warmed up at every speed beforehand, so a switch does not stall.
+     */
+    public Yolo(SpeedController speedController, boolean yolo) throws IOException {
+        this(speedController, yolo, awaitModel(yolo ? YoloModel.YOLO2 : YoloModel.TINY_YOLO));
+    }
+
+    public Yolo(SpeedController speedController, boolean yolo, ComputationGraph model) throws IOException {
+        this(speedController.getSpeed(), yolo, model, speedController);
+    }
+
+    private Yolo(Speed selectedSpeed, boolean yolo, ComputationGraph model, SpeedController speedController)
+            throws IOException {
         this.selectedSpeed = selectedSpeed;
+        this.speedController = speedController;
 
         if (yolo) {
             //real yolo v2
-            if (YOLO_V2_MODEL_PRE_TRAINED == null) {
-                YOLO_V2_MODEL_PRE_TRAINED = (ComputationGraph) YOLO2.builder().build().initPretrained();
-            }
             prepareYOLOLabels();
         } else {
             //tiny yolo
             prepareTinyYOLOLabels();
         }
-        model = getSelectedModel(yolo);
-        warmUp(selectedSpeed);
+        for (Speed speed : speedController == null ? EnumSet.of(selectedSpeed) : EnumSet.allOf(Speed.class)) {
+            schedulers.put(speed, InferenceScheduler.shared(model, speed));
+            warmUp(speed);
+        }
+    }
+
+    private static ComputationGraph awaitModel(YoloModel yoloModel) throws IOException {
+        try {
+            return ModelRegistry.getDefault().load(yoloModel).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + yoloModel, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to load " + yoloModel, e.getCause());
+        }
     }
 
     private void warmUp(Speed selectedSpeed) throws IOException {
         try {
-            Yolo2OutputLayer outputLayer = (Yolo2OutputLayer) model.getOutputLayer(0);
-            BufferedImage read = ImageIO.read(new File("AutonomousDriving/src/main/resources/sample.jpg"));
-            INDArray indArray = prepareImage(read, selectedSpeed.width, selectedSpeed.height);
-            INDArray results = model.outputSingle(indArray);
-            outputLayer.getPredictedObjects(results, DETECTION_THRESHOLD);
+            Mat read = imread("AutonomousDriving/src/main/resources/sample.jpg");
+            if (read.empty()) {
+                throw new IOException("Sample image not found");
+            }
+            awaitDetection(selectedSpeed, FramePreprocessor.forSize(selectedSpeed.width, selectedSpeed.height).prepare(read));
         } catch (IOException e) {
             log.error("Failed to warm , ignoring for now",e);
         }
     }
 
-    public void push(Frame matFrame) {
-        stack.push(matFrame);
+    /**
+     * @return the speed of the next prediction, changing at runtime with a {@link SpeedController}
+     */
+    public Speed getSelectedSpeed() {
+        return selectedSpeed;
     }
 
-    public void drawBoundingBoxesRectangles(Frame frame, Mat matFrame) {
-        if (invalidData(frame, matFrame)) return;
-
-        ArrayList<DetectedObject> detectedObjects = new ArrayList<>(predictedObjects);
-        YoloUtils.nms(detectedObjects, 0.5);
-        for (DetectedObject detectedObject : detectedObjects) {
-            createBoundingBoxRectangle(matFrame, frame.imageWidth, frame.imageHeight, detectedObject);
+    void drawBoundingBoxesRectangles(Mat matFrame, List<Detection> detections) {
+        for (Detection detection : detections) {
+            createBoundingBoxRectangle(matFrame, detection);
         }
-
     }
 
-    private boolean invalidData(Frame frame, Mat matFrame) {
-        return predictedObjects == null || matFrame == null || frame == null;
-    }
-
-    public void predictBoundingBoxes() throws IOException {
-        long start = System.currentTimeMillis();
-        Yolo2OutputLayer outputLayer = (Yolo2OutputLayer) model.getOutputLayer(0);
-        INDArray indArray = prepareImage(stack.pop(), selectedSpeed.width, selectedSpeed.height);
-        log.info("stack of frames size " + stack.size());
-        if (indArray == null) {
-            return;
+    /**
+     * @param w          the width of the frame the boxes are for
+     * @param h          the height of the frame the boxes are for
+     * @param prediction the prediction, may be null
+     * @return the objects left after the non-maximum suppression, with their boxes in pixels
+     */
+    List<Detection> getDetections(int w, int h, Prediction prediction) {
+        if (prediction == null) {
+            return Collections.emptyList();
         }
-
-        INDArray results = model.outputSingle(indArray);
-        if (results == null) {
-            return;
+        ArrayList<DetectedObject> detectedObjects = new ArrayList<>(prediction.objects);
+        YoloUtils.nms(detectedObjects, 0.5);
+        List<Detection> detections = new ArrayList<>(detectedObjects.size());
+        Speed speed = prediction.speed;
+        for (DetectedObject obj : detectedObjects) {
+            double[] xy1 = obj.getTopLeftXY();
+            double[] xy2 = obj.getBottomRightXY();
+            int predictedClass = obj.getPredictedClass();
+            int x1 = (int) Math.round(w * xy1[0] / speed.gridWidth);
+            int y1 = (int) Math.round(h * xy1[1] / speed.gridHeight);
+            int x2 = (int) Math.round(w * xy2[0] / speed.gridWidth);
+            int y2 = (int) Math.round(h * xy2[1] / speed.gridHeight);
+            detections.add(new Detection(predictedClass, groupMap.get(map.get(predictedClass)), obj.getConfidence(),
+                    x1, y1, x2, y2));
         }
-        predictedObjects = outputLayer.getPredictedObjects(results, DETECTION_THRESHOLD);
-
-        log.info("stack of predictions size " + predictedObjects.size());
-        log.info("Prediction time " + (System.currentTimeMillis() - start) / 1000d);
+        return detections;
     }
 
-    private ComputationGraph getSelectedModel(boolean yolo) {
-        ComputationGraph model;
-        if (yolo) {
-            model = YOLO_V2_MODEL_PRE_TRAINED;
-        } else {
-            model = TINY_YOLO_V2_MODEL_PRE_TRAINED;
-        }
-        return model;
+    /**
+     * Predicts on an image of the {@link VideoPlayer}.
+     *
+     * @param offered the frames offered to the detection so far, for the {@link SpeedController}
+     * @param dropped the frames dropped before the detection so far, for the {@link SpeedController}
+     */
+    Prediction predict(Mat image, long offered, long dropped) throws IOException {
+        long start = System.currentTimeMillis();
+        Speed speed = selectedSpeed;
+        return detect(speed, FramePreprocessor.forSize(speed.width, speed.height).prepare(image), start, offered, dropped);
     }
 
-    private INDArray prepareImage(Frame frame, int width, int height) throws IOException {
-        if (frame == null || frame.image == null) {
-            return null;
+    private Prediction detect(Speed speed, INDArray indArray, long start, long offered, long dropped)
+            throws IOException {
+        List<DetectedObject> predictedObjects = awaitDetection(speed, indArray);
+
+        long elapsed = System.currentTimeMillis() - start;
+        log.info("predicted objects " + predictedObjects.size());
+        log.info("Prediction time " + elapsed / 1000d);
+        if (speedController != null) {
+            selectedSpeed = speedController.record(elapsed, offered, dropped);
         }
-        BufferedImage convert = new Java2DFrameConverter().convert(frame);
-        return prepareImage(convert, width, height);
+        return new Prediction(predictedObjects, speed);
     }
 
-    private INDArray prepareImage(BufferedImage convert, int width, int height) throws IOException {
-        NativeImageLoader loader = new NativeImageLoader(height, width, 3);
-        ImagePreProcessingScaler imagePreProcessingScaler = new ImagePreProcessingScaler(0, 1);
-
-        INDArray indArray = loader.asMatrix(convert);
-        if (indArray == null) {
-            return null;
+    private List<DetectedObject> awaitDetection(Speed speed, INDArray indArray) throws IOException {
+        try {
+            return schedulers.get(speed).detect(indArray).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while detecting", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to detect", e.getCause());
+        } catch (IllegalStateException e) {
+            throw new IOException("Failed to detect", e);
         }
-        imagePreProcessingScaler.transform(indArray);
-        return indArray;
     }
 
     private void prepareYOLOLabels() {
@@ -170,20 +202,30 @@ public class Yolo {
         prepareLabels(TINY_COCO_CLASSES);
     }
 
-    private void createBoundingBoxRectangle(Mat file, int w, int h, DetectedObject obj) {
-
-        double[] xy1 = obj.getTopLeftXY();
-        double[] xy2 = obj.getBottomRightXY();
-        int predictedClass = obj.getPredictedClass();
-        int x1 = (int) Math.round(w * xy1[0] / selectedSpeed.gridWidth);
-        int y1 = (int) Math.round(h * xy1[1] / selectedSpeed.gridHeight);
-        int x2 = (int) Math.round(w * xy2[0] / selectedSpeed.gridWidth);
-        int y2 = (int) Math.round(h * xy2[1] / selectedSpeed.gridHeight);
+    private void createBoundingBoxRectangle(Mat file, Detection detection) {
+        int x1 = detection.getX1();
+        int y1 = detection.getY1();
+        int x2 = detection.getX2();
+        int y2 = detection.getY2();
         rectangle(file, new Point(x1, y1), new Point(x2, y2), Scalar.RED);
-        putText(file, groupMap.get(map.get(predictedClass)), new Point(x1 + 2, y2 - 2), FONT_HERSHEY_DUPLEX, 1, Scalar.GREEN);
+        putText(file, detection.getLabel(), new Point(x1 + 2, y2 - 2), FONT_HERSHEY_DUPLEX, 1, Scalar.GREEN);
     }
 
 
+    /**
+     * The objects of one prediction with the speed they were predicted at,
+     * whose grid their coordinates are in.
+     */
+    static class Prediction {
+        private final List<DetectedObject> objects;
+        private final Speed speed;
+
+        Prediction(List<DetectedObject> objects, Speed speed) {
+            this.objects = objects;
+            this.speed = speed;
+        }
+    }
+
     private final String[] COCO_CLASSES = {"person", "bicycle", "car", "motorbike", "aeroplane", "bus", "train",
             "truck", "boat", "traffic light", "fire hydrant", "stop sign", "parking meter", "bench", "bird", "cat",
             "dog", "horse", "sheep", "cow", "elephant", "bear", "zebra", "giraffe", "backpack", "umbrella", "handbag",
@@ -0,0 +1,27 @@
+package ramo.klevis.ml.yolo;
+
+import org.deeplearning4j.zoo.ZooModel;
+import org.deeplearning4j.zoo.model.TinyYOLO;
+
+/**
+ * The pretrained models {@link Yolo} can run, loaded through the {@link ModelRegistry}.
+ */
+public enum YoloModel {
+
+    //less accurate but faster
+    TINY_YOLO {
+        @Override
+        ZooModel zooModel() {
+            return TinyYOLO.builder().build();
+        }
+    },
+    //more accurate but slower
+    YOLO2 {
+        @Override
+        ZooModel zooModel() {
+            return org.deeplearning4j.zoo.model.YOLO2.builder().build();
+        }
+    };
+
+    abstract ZooModel zooModel();
+}
@@ -20,7 +20,7 @@ import java.util.concurrent.Executors;
 @Slf4j
 public class YoloUI {
 
-    private static final int FRAME_WIDTH = 750;
+    private static final int FRAME_WIDTH = 900;
     private static final int FRAME_HEIGHT = 220;
     private static final Font FONT = new Font("Dialog", Font.BOLD, 18);
     private static final Font FONT_ITALIC = new Font("Dialog", Font.ITALIC, 18);
@@ -30,6 +30,7 @@ public class YoloUI {
     private VideoPlayer videoPlayer;
     private ProgressBar progressBar;
     private JRadioButton yolo;
+    private JCheckBox adaptiveSpeed;
 
 
     public void initUI() throws Exception {
@@ -56,7 +57,8 @@ public class YoloUI {
             Executors.newSingleThreadExecutor().submit(() -> {
                 try {
                     videoPlayer = new VideoPlayer();
-                    videoPlayer.startRealTimeVideoDetection(selectedFile.getAbsolutePath(), (Speed) choose.getSelectedItem(), yolo.isSelected());
+                    videoPlayer.startRealTimeVideoDetection(selectedFile.getAbsolutePath(), (Speed) choose.getSelectedItem(),
+                            yolo.isSelected(), adaptiveSpeed.isSelected());
                 } catch (Exception e1) {
                     log.error("Failed to start", e1);
                     throw new RuntimeException(e1);
@@ -94,6 +96,8 @@ public class YoloUI {
         ButtonGroup group = new ButtonGroup();
         yolo = new JRadioButton("Load Real Yolo");
         yolo.setFont(FONT);
+        // start loading as soon as it is chosen rather than when the video starts
+        yolo.addActionListener(e -> ModelRegistry.getDefault().load(YoloModel.YOLO2));
         group.add(yolo);
         panel.add(yolo);
         JRadioButton tinyYolo = new JRadioButton("Tiny Yolo");
@@ -127,6 +131,10 @@ public class YoloUI {
         choose.addItem(Speed.SLOW);
         choose.setSelectedIndex(1);
         panel.add(choose);
+        adaptiveSpeed = new JCheckBox("Adaptive");
+        adaptiveSpeed.setFont(FONT);
+        adaptiveSpeed.setToolTipText("Start at the chosen speed and switch as the detection time allows");
+        panel.add(adaptiveSpeed);
         return choose;
     }
 
@@ -2,7 +2,6 @@ package ramo.klevis.ml.tracking.yolo;
 
 import lombok.extern.slf4j.Slf4j;
 import org.bytedeco.javacv.Frame;
-import org.datavec.image.loader.NativeImageLoader;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.layers.objdetect.DetectedObject;
 import org.deeplearning4j.nn.layers.objdetect.Yolo2OutputLayer;
@@ -10,21 +9,21 @@ import org.deeplearning4j.nn.layers.objdetect.YoloUtils;
 import org.deeplearning4j.zoo.model.YOLO2;
 import org.jetbrains.annotations.Nullable;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.dataset.api.preprocessor.ImagePreProcessingScaler;
 import org.threadly.concurrent.collections.ConcurrentArrayList;
+import ramo.klevis.ml.concurrent.LatestFrameSlot;
+import ramo.klevis.ml.image.FramePreprocessor;
 import ramo.klevis.ml.tracking.ImageUtils;
 import ramo.klevis.ml.tracking.cifar.TrainCifar10Model;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static org.bytedeco.javacpp.opencv_core.*;
 import static org.bytedeco.javacpp.opencv_highgui.imshow;
+import static org.bytedeco.javacpp.opencv_imgcodecs.imread;
 import static org.bytedeco.javacpp.opencv_imgproc.putText;
 import static org.bytedeco.javacpp.opencv_imgproc.rectangle;
 
@@ -32,6 +31,7 @@ import static org.bytedeco.javacpp.opencv_imgproc.rectangle;
 public class Yolo {
 
     private static final double YOLO_DETECTION_THRESHOLD = 0.7;
+    private static final long FRAME_WAIT_MILLIS = 100;
     public final String[] COCO_CLASSES = {"person", "bicycle", "car", "motorbike", "aeroplane", "bus", "train",
             "truck", "boat", "traffic light", "fire hydrant", "stop sign", "parking meter", "bench", "bird", "cat",
             "dog", "horse", "sheep", "cow", "elephant", "bear", "zebra", "giraffe", "backpack", "umbrella", "handbag",
@@ -41,7 +41,7 @@ public class Yolo {
             "sofa", "pottedplant", "bed", "diningtable", "toilet", "tvmonitor", "laptop", "mouse", "remote", "keyboard",
             "cell phone", "microwave", "oven", "toaster", "sink", "refrigerator", "book", "clock", "vase", "scissors",
             "teddy bear", "hair drier", "toothbrush"};
-    private final Map<String, Stack<Mat>> stackMap = new ConcurrentHashMap<>();
+    private final Map<String, LatestFrameSlot<Mat>> frameSlots = new ConcurrentHashMap<>();
 
     private TrainCifar10Model trainCifar10Model = new TrainCifar10Model();
     private Speed selectedSpeed = Speed.MEDIUM;
@@ -55,7 +55,6 @@ public class Yolo {
     private HashMap<Integer, String> map;
     private HashMap<String, String> groupMap;
     private Map<String, ComputationGraph> modelsMap = new ConcurrentHashMap<>();
-    private NativeImageLoader loader;
 
     public void initialize(String windowName,
                            boolean outputFrames,
@@ -65,26 +64,39 @@ public class Yolo {
         this.outputFrames = outputFrames;
         this.preTrainedCifarModel = model;
         this.strategy = strategy;
-        stackMap.put(windowName, new Stack<>());
+        frameSlots.put(windowName, new LatestFrameSlot<>());
         ComputationGraph yolo = (ComputationGraph) YOLO2.builder().build().initPretrained();
         prepareYOLOLabels();
 
         trainCifar10Model.loadTrainedModel(preTrainedCifarModel);
         modelsMap.put(windowName, yolo);
-        loader = new NativeImageLoader(selectedSpeed.height, selectedSpeed.width, 3);
         warmUp(yolo);
     }
 
     private void warmUp(ComputationGraph model) throws IOException {
         Yolo2OutputLayer outputLayer = (Yolo2OutputLayer) model.getOutputLayer(0);
-        BufferedImage read = ImageIO.read(new File("CarTracking/src/main/resources/sample.jpg"));
-        INDArray indArray = prepareImage(loader.asMatrix(read));
+        Mat read = imread("CarTracking/src/main/resources/sample.jpg");
+        if (read.empty()) {
+            throw new IOException("Sample image not found");
+        }
+        INDArray indArray = FramePreprocessor.forSize(selectedSpeed.width, selectedSpeed.height).prepare(read);
         INDArray results = model.outputSingle(indArray);
         outputLayer.getPredictedObjects(results, YOLO_DETECTION_THRESHOLD);
     }
 
+    /**
+     * Hands the frame to the prediction thread of the window, replacing a
+     * frame it has not picked up yet.
+     */
     public void push(Mat matFrame, String windowName) {
-        stackMap.get(windowName).push(matFrame);
+        frameSlots.get(windowName).offer(matFrame);
+    }
+
+    /**
+     * @return how many frames of the window were replaced before a prediction picked them up
+     */
+    public long getDroppedFrames(String windowName) {
+        return frameSlots.get(windowName).getDropped();
     }
 
     public void drawBoundingBoxesRectangles(Frame frame, Mat matFrame, String windowName) throws Exception {
@@ -116,14 +128,14 @@ public class Yolo {
     }
 
     public void predictBoundingBoxes(String windowName) throws Exception {
-        long start = System.currentTimeMillis();
-        Yolo2OutputLayer outputLayer = (Yolo2OutputLayer) modelsMap.get(windowName).getOutputLayer(0);
-        Mat matFrame = stackMap.get(windowName).pop();
-        INDArray indArray = prepareImage(matFrame);
-        log.info("stack of frames size " + stackMap.get(windowName).size());
-        if (indArray == null) {
+        Mat matFrame = frameSlots.get(windowName).take(FRAME_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        if (matFrame == null) {
             return;
         }
+        long start = System.currentTimeMillis();
+        Yolo2OutputLayer outputLayer = (Yolo2OutputLayer) modelsMap.get(windowName).getOutputLayer(0);
+        INDArray indArray = FramePreprocessor.forSize(selectedSpeed.width, selectedSpeed.height).prepare(matFrame);
+        log.info("dropped frames " + frameSlots.get(windowName).getDropped());
 
         INDArray results = modelsMap.get(windowName).outputSingle(indArray);
         if (results == null) {
@@ -149,34 +161,10 @@ public class Yolo {
             }
         }
         this.predictedObjects = markedObjects;
-        log.info("stack of predictions size " + this.predictedObjects.size());
+        log.info("predicted objects " + this.predictedObjects.size());
         log.info("Prediction time " + (System.currentTimeMillis() - start) / 1000d);
     }
 
-    private INDArray prepareImage(Mat frame) throws IOException {
-        if (frame == null) {
-            return null;
-        }
-        ImagePreProcessingScaler imagePreProcessingScaler = new ImagePreProcessingScaler(0, 1);
-
-        INDArray indArray = loader.asMatrix(frame);
-        if (indArray == null) {
-            return null;
-        }
-        imagePreProcessingScaler.transform(indArray);
-        return indArray;
-    }
-
-    private INDArray prepareImage(INDArray indArray) throws IOException {
-
-        if (indArray == null) {
-            return null;
-        }
-        ImagePreProcessingScaler imagePreProcessingScaler = new ImagePreProcessingScaler(0, 1);
-        imagePreProcessingScaler.transform(indArray);
-        return indArray;
-    }
-
     private void prepareYOLOLabels() {
         prepareLabels(COCO_CLASSES);
     }
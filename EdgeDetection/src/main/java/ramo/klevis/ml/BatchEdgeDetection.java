@@ -0,0 +1,284 @@
+package ramo.klevis.ml;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Runs edge detection over many images as a pipeline of three thread pools:
+ * readers decode the files, workers convolve them and writers hand the result
+ * over, by default as a PNG in an output directory. The stages are connected by
+ * bounded queues, so a slow stage holds back the ones before it and only a
+ * fixed number of images is in memory at any time. The workers share one
+ * {@link EdgeDetectionService}, so their scratch arrays are pooled.
+ */
+@Slf4j
+public class BatchEdgeDetection {
+
+    private static final Item END = new Item(null, null);
+    private static final Set<String> IMAGE_SUFFIXES = new HashSet<>(Arrays.asList(ImageIO.getReaderFileSuffixes()));
+
+    private final EdgeDetectionService edgeDetectionService;
+    private final int readers;
+    private final int workers;
+    private final int writers;
+    private final int queueCapacity;
+
+    public BatchEdgeDetection(EdgeDetectionService edgeDetectionService) {
+        this(edgeDetectionService, 2, Runtime.getRuntime().availableProcessors(), 2, 16);
+    }
+
+    /**
+     * @param edgeDetectionService the service shared by all workers
+     * @param readers              the number of threads decoding images
+     * @param workers              the number of threads convolving images
+     * @param writers              the number of threads encoding and writing results
+     * @param queueCapacity        the number of images each queue between two stages holds
+     */
+    public BatchEdgeDetection(EdgeDetectionService edgeDetectionService, int readers, int workers, int writers,
+                              int queueCapacity) {
+        this.edgeDetectionService = edgeDetectionService;
+        this.readers = readers;
+        this.workers = workers;
+        this.writers = writers;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Detects the edges of every image in the input directory and writes them
+     * as PNG files with the same base name into the output directory.
+     *
+     * @param inputDirectory  the directory with the source images
+     * @param outputDirectory the directory receiving the results
+     * @param selectedFilter  one of the filter names of {@link EdgeDetection}
+     * @return the counts of the run
+     * @throws IOException          if the directories can not be accessed
+     * @throws InterruptedException if interrupted while waiting for the pipeline
+     */
+    public BatchResult detectEdges(Path inputDirectory, Path outputDirectory, String selectedFilter)
+            throws IOException, InterruptedException {
+        Files.createDirectories(outputDirectory);
+        try (Stream<Path> files = Files.list(inputDirectory)) {
+            return detectEdges(files.filter(BatchEdgeDetection::isImageFile), selectedFilter,
+                    (source, edges) -> ImageIO.write(edges, "png",
+                            outputDirectory.resolve(baseName(source) + ".png").toFile()));
+        }
+    }
+
+    /**
+     * Detects the edges of every image of the stream and passes each result to
+     * the writer on one of the writer threads. Images that fail with an
+     * exception are logged and counted, they do not stop the run. An
+     * {@link Error}, such as running out of memory, stops the run and is
+     * thrown from here.
+     *
+     * @param images         the image files
+     * @param selectedFilter one of the filter names of {@link EdgeDetection}
+     * @param writer         receives each result, called concurrently by the writer threads
+     * @return the counts of the run
+     * @throws IllegalArgumentException if the filter is not registered
+     * @throws InterruptedException     if interrupted while waiting for the pipeline
+     */
+    public BatchResult detectEdges(Stream<Path> images, String selectedFilter, ResultWriter writer)
+            throws InterruptedException {
+        if (!edgeDetectionService.getEdgeDetection().getFilterNames().contains(selectedFilter)) {
+            throw new IllegalArgumentException("Unknown filter " + selectedFilter);
+        }
+        long start = System.currentTimeMillis();
+        AtomicInteger processed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        BlockingQueue<Item> toRead = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> toConvolve = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Item> toWrite = new ArrayBlockingQueue<>(queueCapacity);
+        Abort abort = new Abort(Thread.currentThread());
+
+        ExecutorService readerPool = null;
+        ExecutorService workerPool = null;
+        ExecutorService writerPool = null;
+        try {
+            readerPool = startStage(readers, toRead, toConvolve, failed, abort,
+                    item -> new Item(item.path, readImage(item.path)));
+            workerPool = startStage(workers, toConvolve, toWrite, failed, abort,
+                    item -> new Item(item.path, edgeDetectionService.detectEdges(item.image, selectedFilter)));
+            writerPool = startStage(writers, toWrite, null, failed, abort,
+                    item -> {
+                        writer.write(item.path, item.image);
+                        processed.incrementAndGet();
+                        return null;
+                    });
+
+            Iterator<Path> iterator = images.iterator();
+            while (iterator.hasNext()) {
+                toRead.put(new Item(iterator.next(), null));
+            }
+            finish(readerPool, readers, toRead);
+            finish(workerPool, workers, toConvolve);
+            finish(writerPool, writers, toWrite);
+        } catch (InterruptedException e) {
+            if (abort.error.get() == null) {
+                throw e;
+            }
+        } finally {
+            // Only does something when the run failed, the threads are parked in take() or put() then
+            shutdownNow(readerPool, workerPool, writerPool);
+        }
+        Error error = abort.error.get();
+        if (error != null) {
+            // Once the stages have ended no interrupt from them can arrive any more
+            awaitTerminationUninterruptibly(readerPool, workerPool, writerPool);
+            Thread.interrupted();
+            throw error;
+        }
+
+        BatchResult result = new BatchResult(processed.get(), failed.get(), System.currentTimeMillis() - start);
+        log.info("Edge detection batch finished " + result);
+        return result;
+    }
+
+    private ExecutorService startStage(int threads, BlockingQueue<Item> input, BlockingQueue<Item> output,
+                                       AtomicInteger failed, Abort abort, Step step) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            pool.submit(() -> {
+                while (true) {
+                    Item item = input.take();
+                    if (item == END) {
+                        return null;
+                    }
+                    Item result;
+                    try {
+                        result = step.apply(item);
+                    } catch (Exception e) {
+                        log.error("Failed to detect edges of " + item.path, e);
+                        failed.incrementAndGet();
+                        continue;
+                    } catch (Error e) {
+                        log.error("Stopping the batch at " + item.path, e);
+                        abort.abort(e);
+                        throw e;
+                    }
+                    if (output != null) {
+                        output.put(result);
+                    }
+                }
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * Sends one end marker per thread of the stage and waits until all threads
+     * have drained the queue in front of it.
+     */
+    private void finish(ExecutorService pool, int threads, BlockingQueue<Item> input) throws InterruptedException {
+        for (int i = 0; i < threads; i++) {
+            input.put(END);
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    private static void shutdownNow(ExecutorService... pools) {
+        for (ExecutorService pool : pools) {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Waits for the pools to end, ignoring interrupts. The caller clears the interrupt status afterwards.
+     */
+    private static void awaitTerminationUninterruptibly(ExecutorService... pools) {
+        for (ExecutorService pool : pools) {
+            while (pool != null && !pool.isTerminated()) {
+                try {
+                    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // the interrupt of the failed stage, or one arriving while the batch is aborted anyway
+                }
+            }
+        }
+    }
+
+    private static BufferedImage readImage(Path path) throws IOException {
+        BufferedImage image = ImageIO.read(path.toFile());
+        if (image == null) {
+            throw new IOException("No image reader for " + path);
+        }
+        return image;
+    }
+
+    private static boolean isImageFile(Path path) {
+        String suffix = suffix(path);
+        return Files.isRegularFile(path) && suffix != null && IMAGE_SUFFIXES.contains(suffix.toLowerCase());
+    }
+
+    private static String suffix(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? null : name.substring(dot + 1);
+    }
+
+    private static String baseName(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+
+    /**
+     * Receives the edges of one source image.
+     */
+    public interface ResultWriter {
+        void write(Path source, BufferedImage edges) throws IOException;
+    }
+
+    private interface Step {
+        Item apply(Item item) throws Exception;
+    }
+
+    /**
+     * Keeps the first {@link Error} of a stage and wakes up the thread running
+     * the batch, which may be blocked on a queue no stage drains any more.
+     */
+    private static class Abort {
+        private final Thread caller;
+        private final AtomicReference<Error> error = new AtomicReference<>();
+
+        private Abort(Thread caller) {
+            this.caller = caller;
+        }
+
+        void abort(Error e) {
+            if (error.compareAndSet(null, e)) {
+                caller.interrupt();
+            }
+        }
+    }
+
+    private static class Item {
+        private final Path path;
+        private final BufferedImage image;
+
+        private Item(Path path, BufferedImage image) {
+            this.path = path;
+            this.image = image;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package ramo.klevis.ml;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Counts of one {@link BatchEdgeDetection} run.
+ */
+@Getter
+@AllArgsConstructor
+public class BatchResult {
+    private final int processed;
+    private final int failed;
+    private final long elapsedMillis;
+
+    public double getImagesPerSecond() {
+        return elapsedMillis == 0 ? 0 : processed * 1000d / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{" +
+                "processed=" + processed +
+                ", failed=" + failed +
+                ", elapsedMillis=" + elapsedMillis +
+                ", imagesPerSecond=" + getImagesPerSecond() +
+                '}';
+    }
+}
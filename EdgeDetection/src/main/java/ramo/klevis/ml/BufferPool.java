@@ -0,0 +1,188 @@
+package ramo.klevis.ml;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * A thread-safe pool of primitive arrays for scratch buffers. Requested
+ * lengths are rounded up to a bucket, eight buckets per power of two, so an
+ * array can serve frames of slightly different sizes while wasting at most an
+ * eighth of its memory. Arrays handed out may therefore be longer than asked
+ * for and keep whatever values they held before.
+ * <p>
+ * Released arrays are kept until the retained bytes would exceed the limit,
+ * further arrays are dropped for the garbage collector. A pool with a limit
+ * of zero keeps nothing and allocates exact lengths.
+ */
+public class BufferPool {
+
+    private static final int BUCKETS_PER_POWER_OF_TWO = 8;
+
+    private final long maxRetainedBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    private final Shelf<double[]> doubles = new Shelf<>(double[]::new, array -> array.length, Double.BYTES);
+    private final Shelf<float[]> floats = new Shelf<>(float[]::new, array -> array.length, Float.BYTES);
+    private final Shelf<int[]> ints = new Shelf<>(int[]::new, array -> array.length, Integer.BYTES);
+    private final Shelf<byte[]> bytes = new Shelf<>(byte[]::new, array -> array.length, Byte.BYTES);
+
+    /**
+     * @param maxRetainedBytes how many bytes of released arrays to keep at most
+     */
+    public BufferPool(long maxRetainedBytes) {
+        if (maxRetainedBytes < 0) {
+            throw new IllegalArgumentException("Retained bytes must not be negative but was " + maxRetainedBytes);
+        }
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * @return a pool that never keeps an array
+     */
+    public static BufferPool unpooled() {
+        return new BufferPool(0);
+    }
+
+    public double[] takeDoubles(int length) {
+        return take(doubles, length);
+    }
+
+    public float[] takeFloats(int length) {
+        return take(floats, length);
+    }
+
+    public int[] takeInts(int length) {
+        return take(ints, length);
+    }
+
+    public byte[] takeBytes(int length) {
+        return take(bytes, length);
+    }
+
+    public void release(double[] array) {
+        release(doubles, array);
+    }
+
+    public void release(float[] array) {
+        release(floats, array);
+    }
+
+    public void release(int[] array) {
+        release(ints, array);
+    }
+
+    public void release(byte[] array) {
+        release(bytes, array);
+    }
+
+    /**
+     * @return how many requests were served by a released array
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return how many requests had to allocate a new array
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return how many released arrays were not kept because of the limit
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the bytes of the arrays currently kept
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    public long getMaxRetainedBytes() {
+        return maxRetainedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{" +
+                "hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", dropped=" + getDropped() +
+                ", retainedBytes=" + getRetainedBytes() +
+                ", maxRetainedBytes=" + maxRetainedBytes +
+                '}';
+    }
+
+    /**
+     * Rounds up to a multiple of an eighth of the highest power of two not
+     * above the length.
+     */
+    static int bucketLength(int length) {
+        if (length <= BUCKETS_PER_POWER_OF_TWO) {
+            return length;
+        }
+        int step = Integer.highestOneBit(length) / BUCKETS_PER_POWER_OF_TWO;
+        return (length + step - 1) / step * step;
+    }
+
+    private <T> T take(Shelf<T> shelf, int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length " + length);
+        }
+        if (maxRetainedBytes == 0) {
+            misses.incrementAndGet();
+            return shelf.allocator.apply(length);
+        }
+        int bucket = bucketLength(length);
+        Queue<T> queue = shelf.buckets.get(bucket);
+        T array = queue == null ? null : queue.poll();
+        if (array == null) {
+            misses.incrementAndGet();
+            return shelf.allocator.apply(bucket);
+        }
+        retainedBytes.addAndGet(-(long) bucket * shelf.elementBytes);
+        hits.incrementAndGet();
+        return array;
+    }
+
+    private <T> void release(Shelf<T> shelf, T array) {
+        int length = shelf.length.applyAsInt(array);
+        long size = (long) length * shelf.elementBytes;
+        if (bucketLength(length) != length || retainedBytes.addAndGet(size) > maxRetainedBytes) {
+            if (bucketLength(length) == length) {
+                retainedBytes.addAndGet(-size);
+            }
+            dropped.incrementAndGet();
+            return;
+        }
+        shelf.buckets.computeIfAbsent(length, key -> new ConcurrentLinkedQueue<>()).offer(array);
+    }
+
+    /**
+     * The released arrays of one element type, by length.
+     */
+    private static class Shelf<T> {
+        private final ConcurrentHashMap<Integer, Queue<T>> buckets = new ConcurrentHashMap<>();
+        private final IntFunction<T> allocator;
+        private final ToIntFunction<T> length;
+        private final int elementBytes;
+
+        Shelf(IntFunction<T> allocator, ToIntFunction<T> length, int elementBytes) {
+            this.allocator = allocator;
+            this.length = length;
+            this.elementBytes = elementBytes;
+        }
+    }
+}
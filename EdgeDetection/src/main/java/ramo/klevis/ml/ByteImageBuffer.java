@@ -0,0 +1,61 @@
+package ramo.klevis.ml;
+
+/**
+ * A single 8 bit channel kept in one row-major {@code byte[]}, the values are
+ * unsigned (0 to 255). Takes an eighth of the memory of an {@link ImageBuffer}
+ * for the same pixels.
+ */
+public class ByteImageBuffer {
+
+    private final int width;
+    private final int height;
+    private final byte[] data;
+
+    public ByteImageBuffer(int width, int height) {
+        this(width, height, new byte[width * height]);
+    }
+
+    /**
+     * Wraps an existing array, which must hold at least {@code width * height} values.
+     *
+     * @param width  the number of columns
+     * @param height the number of rows
+     * @param data   the row-major pixel values
+     */
+    public ByteImageBuffer(int width, int height, byte[] data) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Negative image size " + width + "x" + height);
+        }
+        if (data.length < width * height) {
+            throw new IllegalArgumentException("Buffer of " + data.length
+                    + " values is too small for " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.data = data;
+    }
+
+    public int get(int row, int column) {
+        return data[row * width + column] & 0xFF;
+    }
+
+    public void set(int row, int column, int value) {
+        data[row * width + column] = (byte) value;
+    }
+
+    public boolean sameSize(ByteImageBuffer other) {
+        return width == other.width && height == other.height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,199 @@
+package ramo.klevis.ml;
+
+import java.util.Arrays;
+
+/**
+ * A kernel reduced to the taps that need a multiplication. A symmetric or
+ * antisymmetric kernel is folded along its axis of symmetry into pairs of
+ * mirrored taps, whose pixels are added or subtracted before the single
+ * multiplication, the taps on the axis stay single. Zero taps are dropped.
+ * <p>
+ * Three pairs and nothing else, the shape of every 3x3 Sobel, Scharr and
+ * Prewitt filter, run as one unrolled loop. Any other shape runs tap by tap
+ * over a whole output row, which keeps the inner loops simple enough for the
+ * JIT to vectorize. The order of the additions differs from the direct
+ * convolution, so the results are the same for integer kernels and pixels and
+ * may differ in the last bits otherwise.
+ */
+class CompiledKernel {
+
+    private final int kernelWidth;
+    private final int kernelHeight;
+    private final boolean difference;
+    private final int[][] pairTaps;
+    private final int[][] mirrorTaps;
+    private final double[] pairWeights;
+    private final int[][] singleTaps;
+    private final double[] singleWeights;
+
+    private CompiledKernel(Kernel kernel, boolean difference, int[][] pairTaps, int[][] mirrorTaps,
+                           double[] pairWeights, int[][] singleTaps, double[] singleWeights) {
+        this.kernelWidth = kernel.getWidth();
+        this.kernelHeight = kernel.getHeight();
+        this.difference = difference;
+        this.pairTaps = pairTaps;
+        this.mirrorTaps = mirrorTaps;
+        this.pairWeights = pairWeights;
+        this.singleTaps = singleTaps;
+        this.singleWeights = singleWeights;
+    }
+
+    /**
+     * Folds along whichever axis of symmetry leaves fewer multiplications.
+     */
+    static CompiledKernel compile(Kernel kernel) {
+        CompiledKernel best = fold(kernel, false, false, false);
+        Kernel.Symmetry horizontal = kernel.getHorizontalSymmetry();
+        if (horizontal != Kernel.Symmetry.NONE && kernel.getWidth() > 1) {
+            best = fewer(best, fold(kernel, true, false, horizontal == Kernel.Symmetry.ANTISYMMETRIC));
+        }
+        Kernel.Symmetry vertical = kernel.getVerticalSymmetry();
+        if (vertical != Kernel.Symmetry.NONE && kernel.getHeight() > 1) {
+            best = fewer(best, fold(kernel, false, true, vertical == Kernel.Symmetry.ANTISYMMETRIC));
+        }
+        return best;
+    }
+
+    private static CompiledKernel fewer(CompiledKernel first, CompiledKernel second) {
+        return second.getMultiplications() < first.getMultiplications() ? second : first;
+    }
+
+    /**
+     * @param horizontal pair each tap with its mirror image across the vertical axis
+     * @param vertical   pair each tap with its mirror image across the horizontal axis
+     * @param difference the mirrored entries are negated
+     */
+    private static CompiledKernel fold(Kernel kernel, boolean horizontal, boolean vertical, boolean difference) {
+        double[][] values = kernel.values();
+        int height = kernel.getHeight();
+        int width = kernel.getWidth();
+        int size = height * width;
+        int[][] pairTaps = new int[size][];
+        int[][] mirrorTaps = new int[size][];
+        double[] pairWeights = new double[size];
+        int[][] singleTaps = new int[size][];
+        double[] singleWeights = new double[size];
+        int pairs = 0;
+        int singles = 0;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                int mirrorRow = vertical ? height - 1 - i : i;
+                int mirrorColumn = horizontal ? width - 1 - j : j;
+                double value = values[i][j];
+                if (value == 0 || mirrorRow < i || mirrorColumn < j) {
+                    continue;
+                }
+                if (mirrorRow == i && mirrorColumn == j) {
+                    singleTaps[singles] = new int[]{i, j};
+                    singleWeights[singles++] = value;
+                } else {
+                    pairTaps[pairs] = new int[]{i, j};
+                    mirrorTaps[pairs] = new int[]{mirrorRow, mirrorColumn};
+                    pairWeights[pairs++] = value;
+                }
+            }
+        }
+        return new CompiledKernel(kernel, difference,
+                Arrays.copyOf(pairTaps, pairs), Arrays.copyOf(mirrorTaps, pairs), Arrays.copyOf(pairWeights, pairs),
+                Arrays.copyOf(singleTaps, singles), Arrays.copyOf(singleWeights, singles));
+    }
+
+    int getMultiplications() {
+        return pairWeights.length + singleWeights.length;
+    }
+
+    /**
+     * @return whether the kernel runs as the unrolled loop over three pairs
+     */
+    boolean isThreePairs() {
+        return pairWeights.length == 3 && singleWeights.length == 0;
+    }
+
+    /**
+     * Same contract as {@link ConvolutionBackend#convolveRows}.
+     */
+    void convolveRows(ImageBuffer input, ImageBuffer output, int fromRow, int toRow, int columns, boolean accumulate) {
+        int width = input.getWidth();
+        int[] pairOffsets = offsets(pairTaps, width);
+        int[] mirrorOffsets = offsets(mirrorTaps, width);
+        int offset = (kernelHeight / 2) * width + kernelWidth / 2;
+        if (isThreePairs()) {
+            convolveThreePairs(input, output, pairOffsets, mirrorOffsets, offset, fromRow, toRow, columns, accumulate);
+        } else {
+            convolveTapByTap(input, output, pairOffsets, mirrorOffsets, offsets(singleTaps, width), offset,
+                    fromRow, toRow, columns, accumulate);
+        }
+    }
+
+    private void convolveThreePairs(ImageBuffer input, ImageBuffer output, int[] pairOffsets, int[] mirrorOffsets,
+                                    int offset, int fromRow, int toRow, int columns, boolean accumulate) {
+        double[] in = input.getData();
+        double[] out = output.getData();
+        int width = input.getWidth();
+        double w0 = pairWeights[0], w1 = pairWeights[1], w2 = pairWeights[2];
+        for (int row = fromRow; row < toRow; row++) {
+            int source = row * width;
+            int p0 = source + pairOffsets[0], p1 = source + pairOffsets[1], p2 = source + pairOffsets[2];
+            int m0 = source + mirrorOffsets[0], m1 = source + mirrorOffsets[1], m2 = source + mirrorOffsets[2];
+            int target = source + offset;
+            for (int column = 0; column < columns; column++) {
+                double sum = difference
+                        ? w0 * (in[p0 + column] - in[m0 + column]) + w1 * (in[p1 + column] - in[m1 + column])
+                        + w2 * (in[p2 + column] - in[m2 + column])
+                        : w0 * (in[p0 + column] + in[m0 + column]) + w1 * (in[p1 + column] + in[m1 + column])
+                        + w2 * (in[p2 + column] + in[m2 + column]);
+                out[target + column] = accumulate ? out[target + column] + sum : sum;
+            }
+        }
+    }
+
+    private void convolveTapByTap(ImageBuffer input, ImageBuffer output, int[] pairOffsets, int[] mirrorOffsets,
+                                  int[] singleOffsets, int offset, int fromRow, int toRow, int columns,
+                                  boolean accumulate) {
+        double[] in = input.getData();
+        double[] out = output.getData();
+        int width = input.getWidth();
+        double[] sums = new double[columns];
+        for (int row = fromRow; row < toRow; row++) {
+            int source = row * width;
+            Arrays.fill(sums, 0);
+            for (int p = 0; p < pairOffsets.length; p++) {
+                double weight = pairWeights[p];
+                int first = source + pairOffsets[p];
+                int second = source + mirrorOffsets[p];
+                if (difference) {
+                    for (int column = 0; column < columns; column++) {
+                        sums[column] += weight * (in[first + column] - in[second + column]);
+                    }
+                } else {
+                    for (int column = 0; column < columns; column++) {
+                        sums[column] += weight * (in[first + column] + in[second + column]);
+                    }
+                }
+            }
+            for (int s = 0; s < singleOffsets.length; s++) {
+                double weight = singleWeights[s];
+                int start = source + singleOffsets[s];
+                for (int column = 0; column < columns; column++) {
+                    sums[column] += weight * in[start + column];
+                }
+            }
+            int target = source + offset;
+            if (accumulate) {
+                for (int column = 0; column < columns; column++) {
+                    out[target + column] += sums[column];
+                }
+            } else {
+                System.arraycopy(sums, 0, out, target, columns);
+            }
+        }
+    }
+
+    private static int[] offsets(int[][] taps, int width) {
+        int[] offsets = new int[taps.length];
+        for (int t = 0; t < taps.length; t++) {
+            offsets[t] = taps[t][0] * width + taps[t][1];
+        }
+        return offsets;
+    }
+}
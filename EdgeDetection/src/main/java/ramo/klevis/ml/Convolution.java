@@ -86,31 +86,72 @@ public class Convolution {
                                                  double[][] kernel,
                                                  int kernelWidth,
                                                  int kernelHeight) {
+        double large[][] = new double[width][height];
+        convolution2DPadded(input, width, height, kernel, kernelWidth, kernelHeight, large);
+        return large;
+    }
+
+    /**
+     * Same as {@link #convolution2DPadded(double[][], int, int, double[][], int, int)}
+     * but writes into an existing array. Only the part covered by the kernel is
+     * written, the border keeps whatever the array held before.
+     *
+     * @param input        the 2D double array representing the image
+     * @param width        the width of the image
+     * @param height       the height of the image
+     * @param kernel       the 2D array representing the kernel
+     * @param kernelWidth  the width of the kernel
+     * @param kernelHeight the height of the kernel
+     * @param output       the 2D array receiving the new image, must not be the input
+     */
+    public static void convolution2DPadded(double[][] input,
+                                           int width, int height,
+                                           double[][] kernel,
+                                           int kernelWidth,
+                                           int kernelHeight,
+                                           double[][] output) {
         int smallWidth = width - kernelWidth + 1;
         int smallHeight = height - kernelHeight + 1;
         int top = kernelHeight / 2;
         int left = kernelWidth / 2;
 
-        double[][] small = convolution2D(input, width, height,
-                kernel, kernelWidth, kernelHeight);
-        double large[][] = new double[width][height];
-        for (int j = 0; j < height; ++j) {
-            for (int i = 0; i < width; ++i) {
-                large[i][j] = 0;
-            }
-        }
-        for (int j = 0; j < smallHeight; ++j) {
-            for (int i = 0; i < smallWidth; ++i) {
-                large[i + left][j + top] = small[i][j];
+        for (int i = 0; i < smallWidth; ++i) {
+            for (int j = 0; j < smallHeight; ++j) {
+                output[i + left][j + top] = singlePixelConvolution(input, i, j, kernel,
+                        kernelWidth, kernelHeight);
             }
         }
-        return large;
     }
 
 
+    /**
+     * Averages every kernelWidth x kernelHeight window of the image, which is
+     * what convolution2DPadded does with a kernel of equal weights. The sums come
+     * from an {@link IntegralImage}, so the cost does not grow with the window.
+     *
+     * @param input        the 2D double array representing the image
+     * @param width        the width of the image
+     * @param height       the height of the image
+     * @param kernelWidth  the width of the window
+     * @param kernelHeight the height of the window
+     * @return the 2D array representing the new image
+     */
+    public static double[][] boxFilterPadded(double[][] input,
+                                             int width, int height,
+                                             int kernelWidth,
+                                             int kernelHeight) {
+        IntegralImage integralImage = new IntegralImage(height, width);
+        for (int i = 0; i < width; ++i) {
+            integralImage.addRow(input[i], 0);
+        }
+        return integralImage.boxFilter(kernelHeight, kernelWidth).toArray();
+    }
+
     /**
      * Applies the convolution2DPadded  algorithm to the input array as many as
-     * iterations.
+     * iterations. The iterations alternate between two arrays, each one reading
+     * the result of the previous, so only two arrays are allocated no matter
+     * how many iterations run.
      *
      * @param input        the 2D double array representing the image
      * @param width        the width of the image
@@ -126,13 +167,19 @@ public class Convolution {
                                        double[][] kernel,
                                        int kernelWidth, int kernelHeight,
                                        int iterations) {
-        double[][] newInput = input.clone();
-        double[][] output = input.clone();
+        if (iterations <= 0) {
+            return input.clone();
+        }
+        double[][] previous = new double[width][height];
+        double[][] output = new double[width][height];
+        convolution2DPadded(input, width, height, kernel, kernelWidth, kernelHeight, output);
 
-        for (int i = 0; i < iterations; ++i) {
-            output = convolution2DPadded(newInput, width, height,
-                    kernel, kernelWidth, kernelHeight);
-            newInput = output.clone();
+        for (int i = 1; i < iterations; ++i) {
+            double[][] swap = previous;
+            previous = output;
+            output = swap;
+            convolution2DPadded(previous, width, height,
+                    kernel, kernelWidth, kernelHeight, output);
         }
         return output;
     }
@@ -0,0 +1,51 @@
+package ramo.klevis.ml;
+
+/**
+ * Computes a band of output rows of a padded convolution. {@link ConvolutionEngine}
+ * takes care of the border and of splitting the image across threads, a backend
+ * only implements the multiply-accumulate loops.
+ */
+public interface ConvolutionBackend {
+
+    String VECTOR_BACKEND = "ramo.klevis.ml.VectorConvolutionBackend";
+
+    /**
+     * Convolves the output rows {@code [fromRow, toRow)}, counted from the first
+     * row the kernel fits on, so row {@code r} is written at image row
+     * {@code r + kernelHeight / 2} starting at column {@code kernelWidth / 2}.
+     *
+     * @param input      the image to convolve
+     * @param kernel     the kernel
+     * @param output     the image receiving the result
+     * @param fromRow    the first output row, inclusive
+     * @param toRow      the last output row, exclusive
+     * @param columns    the number of output columns, {@code width - kernelWidth + 1}
+     * @param accumulate add to the values already in the output instead of replacing them
+     */
+    void convolveRows(ImageBuffer input, Kernel kernel, ImageBuffer output,
+                      int fromRow, int toRow, int columns, boolean accumulate);
+
+    String getName();
+
+    static ConvolutionBackend scalar() {
+        return new ScalarConvolutionBackend();
+    }
+
+    /**
+     * Returns the SIMD backend when the running JVM provides the
+     * {@code jdk.incubator.vector} module (JDK 16+ started with
+     * {@code --add-modules jdk.incubator.vector}) and the backend was compiled,
+     * which the {@code vector-api} Maven profile does on JDK 16+. Falls back to
+     * the scalar backend otherwise.
+     *
+     * @return the fastest backend available
+     */
+    static ConvolutionBackend vectorIfAvailable() {
+        try {
+            Class.forName("jdk.incubator.vector.DoubleVector");
+            return (ConvolutionBackend) Class.forName(VECTOR_BACKEND).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return scalar();
+        }
+    }
+}
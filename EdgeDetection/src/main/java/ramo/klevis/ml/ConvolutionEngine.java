@@ -0,0 +1,340 @@
+package ramo.klevis.ml;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Convolution over flat {@link ImageBuffer}s. It produces the same values as
+ * {@link Convolution#convolution2DPadded} but writes straight into the padded
+ * output in a single pass instead of allocating an intermediate array.
+ * <p>
+ * With more than one thread the output rows are split into tiles which run on
+ * a {@link ForkJoinPool}. Engines with the same number of threads share one
+ * pool, so creating engines does not add threads. A tile reads its rows plus the {@code kernelHeight - 1}
+ * rows below them (the halo) from the shared input, so tiles never need a copy
+ * of their neighbours.
+ * <p>
+ * Large kernels go through {@link FftConvolution} whenever its cost model
+ * expects the transform to beat the direct loops.
+ */
+public class ConvolutionEngine {
+
+    private static final int MIN_TILE_ROWS = 16;
+
+    /**
+     * The pools by their parallelism, created on first use and kept for the
+     * life of the JVM. Their worker threads are daemons.
+     */
+    private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    private final ConvolutionBackend backend;
+    private final FftConvolution fftConvolution;
+
+    /**
+     * Creates a single threaded engine.
+     */
+    public ConvolutionEngine() {
+        this(1);
+    }
+
+    /**
+     * @param threads the number of threads used per convolution, 1 runs on the caller thread
+     */
+    public ConvolutionEngine(int threads) {
+        this(threads, ConvolutionBackend.scalar());
+    }
+
+    /**
+     * @param threads the number of threads used per convolution, 1 runs on the caller thread
+     * @param backend the loops doing the multiply-accumulate
+     */
+    public ConvolutionEngine(int threads, ConvolutionBackend backend) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1 but was " + threads);
+        }
+        this.parallelism = threads;
+        this.pool = threads == 1 ? null : POOLS.computeIfAbsent(threads, ForkJoinPool::new);
+        this.backend = backend;
+        this.fftConvolution = new FftConvolution(pool, threads, FftConvolution.DEFAULT_MAX_CACHED_BYTES);
+    }
+
+    /**
+     * Applies the kernel to every position where it fits completely inside the
+     * input and stores the result centered in the output. The border of
+     * {@code kernelHeight / 2} rows and {@code kernelWidth / 2} columns which
+     * can not be computed is set to zero.
+     *
+     * @param input  the image to convolve
+     * @param kernel the kernel indexed as {@code kernel[row][column]}
+     * @param output the image receiving the result, same size as the input
+     */
+    public void convolvePadded(ImageBuffer input, double[][] kernel, ImageBuffer output) {
+        convolvePadded(input, new Kernel(kernel), output);
+    }
+
+    /**
+     * Same as {@link #convolvePadded(ImageBuffer, double[][], ImageBuffer)} for a
+     * kernel that has already been analysed. Separable kernels larger than 3x3
+     * run as two 1-D passes, costing {@code kernelWidth + kernelHeight}
+     * multiply-adds per pixel instead of {@code kernelWidth * kernelHeight}.
+     *
+     * @param input  the image to convolve
+     * @param kernel the kernel
+     * @param output the image receiving the result, same size as the input
+     */
+    public void convolvePadded(ImageBuffer input, Kernel kernel, ImageBuffer output) {
+        convolvePaddedSum(new ImageBuffer[]{input}, kernel, output);
+    }
+
+    /**
+     * Convolves every channel with the same kernel and stores the sum of the
+     * results in the output, which is what edge detection does with the red,
+     * green and blue channels. Each tile convolves all channels into its rows
+     * while they are still in cache, so the sum needs no extra pass and no
+     * per-channel output buffers.
+     *
+     * @param channels the images to convolve, all the same size
+     * @param kernel   the kernel
+     * @param output   the image receiving the sum, same size as the channels
+     */
+    public void convolvePaddedSum(ImageBuffer[] channels, Kernel kernel, ImageBuffer output) {
+        for (ImageBuffer channel : channels) {
+            if (channel == output) {
+                throw new IllegalArgumentException("Output must not be one of the inputs");
+            }
+            if (!channel.sameSize(output)) {
+                throw new IllegalArgumentException("Output " + output.getWidth() + "x" + output.getHeight()
+                        + " does not match input " + channel.getWidth() + "x" + channel.getHeight());
+            }
+        }
+        int rows = output.getHeight() - kernel.getHeight() + 1;
+        int columns = output.getWidth() - kernel.getWidth() + 1;
+        clearBorder(output, kernel.getWidth(), kernel.getHeight(), rows, columns);
+        if (rows <= 0 || columns <= 0) {
+            return;
+        }
+        if (fftConvolution.isCheaper(kernel, output.getWidth(), output.getHeight(), channels.length)) {
+            fftConvolution.convolvePaddedSum(channels, kernel, output);
+        } else {
+            runTiles(rows, (fromRow, toRow) -> {
+                for (int c = 0; c < channels.length; c++) {
+                    backend.convolveRows(channels[c], kernel, output, fromRow, toRow, columns, c > 0);
+                }
+            });
+        }
+    }
+
+    /**
+     * Same as {@link #convolvePaddedSum(ImageBuffer[], Kernel, ImageBuffer)} for
+     * unsigned 8 bit channels and an integer kernel, accumulating exactly in
+     * {@code int}.
+     *
+     * @param channels the images to convolve, all the same size
+     * @param kernel   the kernel, {@link Kernel#isInteger()} must be true
+     * @param output   receives the sum, row-major and at least width * height long
+     */
+    public void convolvePaddedSum(ByteImageBuffer[] channels, Kernel kernel, int[] output) {
+        if (!kernel.isInteger()) {
+            throw new IllegalArgumentException("Kernel must have integer entries");
+        }
+        int width = channels[0].getWidth();
+        int height = channels[0].getHeight();
+        for (ByteImageBuffer channel : channels) {
+            if (!channel.sameSize(channels[0])) {
+                throw new IllegalArgumentException("Channels must have the same size");
+            }
+        }
+        if (output.length < width * height) {
+            throw new IllegalArgumentException("Output of " + output.length
+                    + " values is too small for " + width + "x" + height);
+        }
+        if (kernel.getAbsoluteSum() * 255 * channels.length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Kernel entries are too large for int accumulation");
+        }
+        int rows = height - kernel.getHeight() + 1;
+        int columns = width - kernel.getWidth() + 1;
+        clearBorder(width, height, kernel.getWidth(), kernel.getHeight(), rows, columns,
+                (from, to) -> Arrays.fill(output, from, to, 0));
+        if (rows <= 0 || columns <= 0) {
+            return;
+        }
+        int[][] values = kernel.integerValues();
+        runTiles(rows, (fromRow, toRow) -> {
+            for (int c = 0; c < channels.length; c++) {
+                IntegerConvolution.convolveRows(channels[c], values, output, fromRow, toRow, columns, c > 0);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #convolvePaddedSum(ImageBuffer[], Kernel, ImageBuffer)} in
+     * single precision.
+     *
+     * @param channels the images to convolve, all the same size
+     * @param kernel   the kernel
+     * @param output   the image receiving the sum, same size as the channels
+     */
+    public void convolvePaddedSum(FloatImageBuffer[] channels, Kernel kernel, FloatImageBuffer output) {
+        for (FloatImageBuffer channel : channels) {
+            if (channel == output) {
+                throw new IllegalArgumentException("Output must not be one of the inputs");
+            }
+            if (!channel.sameSize(output)) {
+                throw new IllegalArgumentException("Output " + output.getWidth() + "x" + output.getHeight()
+                        + " does not match input " + channel.getWidth() + "x" + channel.getHeight());
+            }
+        }
+        int rows = output.getHeight() - kernel.getHeight() + 1;
+        int columns = output.getWidth() - kernel.getWidth() + 1;
+        float[] out = output.getData();
+        clearBorder(output.getWidth(), output.getHeight(), kernel.getWidth(), kernel.getHeight(), rows, columns,
+                (from, to) -> Arrays.fill(out, from, to, 0));
+        if (rows <= 0 || columns <= 0) {
+            return;
+        }
+        float[][] values = kernel.floatValues();
+        runTiles(rows, (fromRow, toRow) -> {
+            for (int c = 0; c < channels.length; c++) {
+                FloatConvolution.convolveRows(channels[c], values, output, fromRow, toRow, columns, c > 0);
+            }
+        });
+    }
+
+    /**
+     * Applies the kernel {@code iterations} times, every pass convolving the
+     * result of the previous one, e.g. to blur repeatedly. The passes alternate
+     * between two buffers, so two buffers are allocated however many
+     * iterations run.
+     *
+     * @param input      the image to convolve, left unchanged
+     * @param kernel     the kernel
+     * @param iterations the number of passes
+     * @return the result of the last pass, a copy of the input for zero iterations
+     */
+    public ImageBuffer convolveIterated(ImageBuffer input, Kernel kernel, int iterations) {
+        checkIterations(iterations);
+        if (iterations == 0) {
+            return new ImageBuffer(input.getWidth(), input.getHeight(),
+                    Arrays.copyOf(input.getData(), input.getWidth() * input.getHeight()));
+        }
+        ImageBuffer previous = new ImageBuffer(input.getWidth(), input.getHeight());
+        ImageBuffer output = new ImageBuffer(input.getWidth(), input.getHeight());
+        convolvePadded(input, kernel, output);
+        for (int i = 1; i < iterations; i++) {
+            ImageBuffer swap = previous;
+            previous = output;
+            output = swap;
+            convolvePadded(previous, kernel, output);
+        }
+        return output;
+    }
+
+    /**
+     * Same as {@link #convolveIterated} but overwrites the image instead of
+     * allocating a second one. A window of the last {@code kernelHeight} input
+     * rows is kept aside, each output row is computed from the window and then
+     * written over an input row which no later output row needs any more. The
+     * rows are processed one after the other on the calling thread.
+     *
+     * @param image      the image to convolve, receives the result
+     * @param kernel     the kernel
+     * @param iterations the number of passes
+     */
+    public void convolveInPlace(ImageBuffer image, Kernel kernel, int iterations) {
+        checkIterations(iterations);
+        int width = image.getWidth();
+        int kernelHeight = kernel.getHeight();
+        int rows = image.getHeight() - kernelHeight + 1;
+        int columns = width - kernel.getWidth() + 1;
+        if (iterations == 0) {
+            return;
+        }
+        if (rows <= 0 || columns <= 0) {
+            clearBorder(image, kernel.getWidth(), kernelHeight, rows, columns);
+            return;
+        }
+        // Every input row is stored twice, kernelHeight rows apart, so the
+        // rows of the window are always contiguous starting at row % kernelHeight.
+        ImageBuffer window = new ImageBuffer(width, 2 * kernelHeight);
+        ImageBuffer windowOutput = new ImageBuffer(width, 2 * kernelHeight);
+        double[] data = image.getData();
+        int top = kernelHeight / 2;
+        int left = kernel.getWidth() / 2;
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            for (int row = 0; row < kernelHeight - 1; row++) {
+                copyToWindow(data, row, window, kernelHeight);
+            }
+            for (int row = 0; row < rows; row++) {
+                copyToWindow(data, row + kernelHeight - 1, window, kernelHeight);
+                int slot = row % kernelHeight;
+                backend.convolveRows(window, kernel, windowOutput, slot, slot + 1, columns, false);
+                System.arraycopy(windowOutput.getData(), (slot + top) * width + left,
+                        data, (row + top) * width + left, columns);
+            }
+            clearBorder(image, kernel.getWidth(), kernelHeight, rows, columns);
+        }
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public ConvolutionBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Runs the rows on the calling thread, or split in tiles on the pool.
+     */
+    private void runTiles(int rows, RowRange rowRange) {
+        if (pool == null || rows <= MIN_TILE_ROWS) {
+            rowRange.run(0, rows);
+        } else {
+            int tileRows = Math.max(MIN_TILE_ROWS, rows / (parallelism * 4));
+            pool.invoke(new TileTask(rowRange, 0, rows, tileRows));
+        }
+    }
+
+    private void checkIterations(int iterations) {
+        if (iterations < 0) {
+            throw new IllegalArgumentException("Iterations must not be negative but was " + iterations);
+        }
+    }
+
+    private void copyToWindow(double[] data, int row, ImageBuffer window, int kernelHeight) {
+        int width = window.getWidth();
+        int slot = row % kernelHeight;
+        System.arraycopy(data, row * width, window.getData(), slot * width, width);
+        System.arraycopy(data, row * width, window.getData(), (slot + kernelHeight) * width, width);
+    }
+
+    private void clearBorder(ImageBuffer output, int kernelWidth, int kernelHeight, int rows, int columns) {
+        double[] out = output.getData();
+        clearBorder(output.getWidth(), output.getHeight(), kernelWidth, kernelHeight, rows, columns,
+                (from, to) -> Arrays.fill(out, from, to, 0));
+    }
+
+    /**
+     * Passes every index range of the border the kernel does not reach to the filler.
+     */
+    private void clearBorder(int width, int height, int kernelWidth, int kernelHeight, int rows, int columns,
+                             RowRange filler) {
+        if (rows <= 0 || columns <= 0) {
+            filler.run(0, width * height);
+            return;
+        }
+        int top = kernelHeight / 2;
+        int left = kernelWidth / 2;
+        filler.run(0, top * width);
+        filler.run((top + rows) * width, width * height);
+        for (int row = top; row < top + rows; row++) {
+            int start = row * width;
+            filler.run(start, start + left);
+            filler.run(start + left + columns, start + width);
+        }
+    }
+}
@@ -1,11 +1,12 @@
 package ramo.klevis.ml;
 
+import ramo.klevis.ml.image.PixelAccess;
+
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.List;
 
 /**
  * Created by Klevis Ramo
@@ -21,73 +22,268 @@ public class EdgeDetection {
     public static final String SCHARR_FILTER_VETICAL = "Scharr Vertical Filter";
     public static final String SCHARR_FILTER_HORIZONTAL = "Scharr Horizontal Filter";
 
-    private static final double[][] FILTER_VERTICAL = {{1, 0, -1}, {1, 0, -1}, {1, 0, -1}};
-    private static final double[][] FILTER_HORIZONTAL = {{1, 1, 1}, {0, 0, 0}, {-1, -1, -1}};
+    public static final String SOBEL_GRADIENT_MAGNITUDE = "Sobel Gradient Magnitude";
+    public static final String CANNY = "Canny";
 
-    private static final double[][] FILTER_SOBEL_V = {{1, 0, -1}, {2, 0, -2}, {1, 0, -1}};
-    private static final double[][] FILTER_SOBEL_H = {{1, 2, 1}, {0, 0, 0}, {-1, -2, -1}};
+    private static final String DEFAULT_OUTPUT_FILE = "EdgeDetection/edgesTmp.png";
 
-    private static final double[][] FILTER_SCHARR_V = {{3, 0, -3}, {10, 0, -10}, {3, 0, -3}};
-    private static final double[][] FILTER_SCHARR_H = {{3, 10, 3}, {0, 0, 0}, {-3, -10, -3}};
+    private static final BufferPool UNPOOLED = BufferPool.unpooled();
 
-    private final HashMap<String, double[][]> filterMap;
+    private final KernelRegistry kernelRegistry;
+    private final ConvolutionEngine convolutionEngine;
+    private final Precision precision;
+    private final GradientOperator gradientOperator = new GradientOperator();
 
     public EdgeDetection() {
-        filterMap = buildFilterMap();
+        this(1);
+    }
+
+    /**
+     * @param threads the number of threads each image is convolved with
+     */
+    public EdgeDetection(int threads) {
+        this(new ConvolutionEngine(threads));
+    }
+
+    /**
+     * @param convolutionEngine the engine, e.g. one using {@link ConvolutionBackend#vectorIfAvailable()}
+     */
+    public EdgeDetection(ConvolutionEngine convolutionEngine) {
+        this(convolutionEngine, Precision.DOUBLE);
+    }
+
+    /**
+     * @param convolutionEngine the engine
+     * @param precision         the number type the filters are applied in, the
+     *                          gradient magnitude and Canny always use doubles
+     */
+    public EdgeDetection(ConvolutionEngine convolutionEngine, Precision precision) {
+        this(convolutionEngine, precision, KernelRegistry.defaults());
+    }
 
+    /**
+     * @param convolutionEngine the engine
+     * @param precision         the number type the filters are applied in
+     * @param kernelRegistry    the convolution filters selectable by name
+     */
+    public EdgeDetection(ConvolutionEngine convolutionEngine, Precision precision, KernelRegistry kernelRegistry) {
+        this.kernelRegistry = kernelRegistry;
+        this.convolutionEngine = convolutionEngine;
+        this.precision = precision;
     }
 
     public File detectEdges(BufferedImage bufferedImage, String selectedFilter) throws IOException {
-        double[][][] image = transformImageToArray(bufferedImage);
-        double[][] filter = filterMap.get(selectedFilter);
-        double[][] convolvedPixels = applyConvolution(bufferedImage.getWidth(),
-                bufferedImage.getHeight(), image, filter);
-        return createImageFromConvolutionMatrix(bufferedImage, convolvedPixels);
+        return detectEdges(bufferedImage, selectedFilter, new File(DEFAULT_OUTPUT_FILE));
+    }
+
+    /**
+     * Detects the edges and writes them as a PNG to the given file.
+     *
+     * @param bufferedImage  the source image
+     * @param selectedFilter one of the filter names
+     * @param outputFile     the PNG file to write
+     * @return the output file
+     * @throws IOException if the file can not be written
+     */
+    public File detectEdges(BufferedImage bufferedImage, String selectedFilter, File outputFile) throws IOException {
+        ImageIO.write(detectEdgesAsImage(bufferedImage, selectedFilter), "png", outputFile);
+        return outputFile;
+    }
+
+    /**
+     * Detects the edges without touching the disk. An instance holds no per
+     * call state, so this can be called from several threads at once.
+     *
+     * @param bufferedImage  the source image
+     * @param selectedFilter one of the filter names
+     * @return a grey image of the same size with the edges
+     */
+    public BufferedImage detectEdgesAsImage(BufferedImage bufferedImage, String selectedFilter) {
+        if (SOBEL_GRADIENT_MAGNITUDE.equals(selectedFilter)) {
+            return createImageFromConvolutionMatrix(bufferedImage,
+                    gradientOperator.magnitude(transformImageToArray(bufferedImage)));
+        }
+        if (CANNY.equals(selectedFilter)) {
+            return detectCannyEdgesAsImage(bufferedImage,
+                    GradientOperator.DEFAULT_LOW_THRESHOLD, GradientOperator.DEFAULT_HIGH_THRESHOLD);
+        }
+        Kernel filter = getFilter(selectedFilter);
+        int[] grey = new int[bufferedImage.getWidth() * bufferedImage.getHeight()];
+        detectEdges(bufferedImage, filter, grey, UNPOOLED);
+        return PixelAccess.createRGB(bufferedImage.getWidth(), bufferedImage.getHeight(), grey);
+    }
+
+    /**
+     * Applies a convolution filter and stores the edges as grey {@code 0xRRGGBB}
+     * pixels. Every scratch array is taken from the pool and given back to it.
+     *
+     * @param bufferedImage the source image
+     * @param filter        the kernel
+     * @param grey          receives the pixels, at least width * height long
+     * @param bufferPool    the pool of scratch arrays
+     */
+    void detectEdges(BufferedImage bufferedImage, Kernel filter, int[] grey, BufferPool bufferPool) {
+        if (precision == Precision.INTEGER && filter.isInteger()) {
+            detectEdgesInteger(bufferedImage, filter, grey, bufferPool);
+        } else if (precision != Precision.DOUBLE) {
+            detectEdgesFloat(bufferedImage, filter, grey, bufferPool);
+        } else {
+            detectEdgesDouble(bufferedImage, filter, grey, bufferPool);
+        }
+    }
+
+    /**
+     * Computes the horizontal and vertical Sobel derivatives in one pass, which
+     * replaces running the two Sobel filters one after the other.
+     *
+     * @param bufferedImage the source image
+     * @return the gradient magnitude and orientation
+     */
+    public Gradient detectGradient(BufferedImage bufferedImage) {
+        return gradientOperator.gradient(transformImageToArray(bufferedImage));
+    }
+
+    /**
+     * @param bufferedImage the source image
+     * @param lowThreshold  the gradient magnitude a pixel needs to extend an edge
+     * @param highThreshold the gradient magnitude a pixel needs to start an edge
+     * @return a black image with the Canny edges in white
+     * @see GradientOperator#canny
+     */
+    public BufferedImage detectCannyEdgesAsImage(BufferedImage bufferedImage, double lowThreshold, double highThreshold) {
+        ImageBuffer edges = gradientOperator.canny(transformImageToArray(bufferedImage), lowThreshold, highThreshold);
+        return createImageFromConvolutionMatrix(bufferedImage, edges);
+    }
+
+    /**
+     * @param filterName one of the convolution filter names
+     * @return the kernel of the filter
+     */
+    public Kernel getFilter(String filterName) {
+        return kernelRegistry.get(filterName);
+    }
+
+    /**
+     * @return the names of the registered convolution filters followed by the
+     * gradient magnitude and Canny
+     */
+    public List<String> getFilterNames() {
+        List<String> names = kernelRegistry.getNames();
+        names.add(SOBEL_GRADIENT_MAGNITUDE);
+        names.add(CANNY);
+        return names;
     }
 
-    private double[][][] transformImageToArray(BufferedImage bufferedImage) {
+    public KernelRegistry getKernelRegistry() {
+        return kernelRegistry;
+    }
+
+    private void detectEdgesDouble(BufferedImage bufferedImage, Kernel filter, int[] grey, BufferPool bufferPool) {
         int width = bufferedImage.getWidth();
         int height = bufferedImage.getHeight();
-
-        double[][][] image = new double[3][height][width];
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                Color color = new Color(bufferedImage.getRGB(j, i));
-                image[0][i][j] = color.getRed();
-                image[1][i][j] = color.getGreen();
-                image[2][i][j] = color.getBlue();
+        int pixels = width * height;
+        ImageBuffer[] image = {new ImageBuffer(width, height, bufferPool.takeDoubles(pixels)),
+                new ImageBuffer(width, height, bufferPool.takeDoubles(pixels)),
+                new ImageBuffer(width, height, bufferPool.takeDoubles(pixels))};
+        ImageBuffer convolvedPixels = new ImageBuffer(width, height, bufferPool.takeDoubles(pixels));
+        try {
+            PixelAccess.readChannels(bufferedImage, image[0].getData(), image[1].getData(), image[2].getData());
+            convolutionEngine.convolvePaddedSum(image, filter, convolvedPixels);
+            double[] convolved = convolvedPixels.getData();
+            for (int i = 0; i < pixels; i++) {
+                int value = fixOutOfRangeRGBValues(convolved[i]);
+                grey[i] = value << 16 | value << 8 | value;
+            }
+        } finally {
+            for (ImageBuffer channel : image) {
+                bufferPool.release(channel.getData());
             }
+            bufferPool.release(convolvedPixels.getData());
         }
-        return image;
     }
 
-    private double[][] applyConvolution(int width, int height, double[][][] image, double[][] filter) {
-        Convolution convolution = new Convolution();
-        double[][] redConv = convolution.convolutionType2(image[0], height, width, filter, 3, 3, 1);
-        double[][] greenConv = convolution.convolutionType2(image[1], height, width, filter, 3, 3, 1);
-        double[][] blueConv = convolution.convolutionType2(image[2], height, width, filter, 3, 3, 1);
-        double[][] finalConv = new double[redConv.length][redConv[0].length];
-        for (int i = 0; i < redConv.length; i++) {
-            for (int j = 0; j < redConv[i].length; j++) {
-                finalConv[i][j] = redConv[i][j] + greenConv[i][j] + blueConv[i][j];
+    /**
+     * Splits the packed pixels into 8 bit channels and then reuses the packed
+     * array for the convolution result.
+     */
+    private void detectEdgesInteger(BufferedImage bufferedImage, Kernel filter, int[] grey, BufferPool bufferPool) {
+        int width = bufferedImage.getWidth();
+        int height = bufferedImage.getHeight();
+        int pixels = width * height;
+        ByteImageBuffer[] image = {new ByteImageBuffer(width, height, bufferPool.takeBytes(pixels)),
+                new ByteImageBuffer(width, height, bufferPool.takeBytes(pixels)),
+                new ByteImageBuffer(width, height, bufferPool.takeBytes(pixels))};
+        try {
+            PixelAccess.readRGB(bufferedImage, grey);
+            byte[] red = image[0].getData();
+            byte[] green = image[1].getData();
+            byte[] blue = image[2].getData();
+            for (int i = 0; i < pixels; i++) {
+                red[i] = (byte) (grey[i] >> 16);
+                green[i] = (byte) (grey[i] >> 8);
+                blue[i] = (byte) grey[i];
+            }
+            convolutionEngine.convolvePaddedSum(image, filter, grey);
+            for (int i = 0; i < pixels; i++) {
+                int value = fixOutOfRangeRGBValues(grey[i]);
+                grey[i] = value << 16 | value << 8 | value;
+            }
+        } finally {
+            for (ByteImageBuffer channel : image) {
+                bufferPool.release(channel.getData());
             }
         }
-        return finalConv;
     }
 
-    private File createImageFromConvolutionMatrix(BufferedImage originalImage, double[][] imageRGB) throws IOException {
-        BufferedImage writeBackImage = new BufferedImage(originalImage.getWidth(), originalImage.getHeight(), BufferedImage.TYPE_INT_RGB);
-        for (int i = 0; i < imageRGB.length; i++) {
-            for (int j = 0; j < imageRGB[i].length; j++) {
-                Color color = new Color(fixOutOfRangeRGBValues(imageRGB[i][j]),
-                        fixOutOfRangeRGBValues(imageRGB[i][j]),
-                        fixOutOfRangeRGBValues(imageRGB[i][j]));
-                writeBackImage.setRGB(j, i, color.getRGB());
+    private void detectEdgesFloat(BufferedImage bufferedImage, Kernel filter, int[] grey, BufferPool bufferPool) {
+        int width = bufferedImage.getWidth();
+        int height = bufferedImage.getHeight();
+        int pixels = width * height;
+        FloatImageBuffer[] image = {new FloatImageBuffer(width, height, bufferPool.takeFloats(pixels)),
+                new FloatImageBuffer(width, height, bufferPool.takeFloats(pixels)),
+                new FloatImageBuffer(width, height, bufferPool.takeFloats(pixels))};
+        FloatImageBuffer convolvedPixels = new FloatImageBuffer(width, height, bufferPool.takeFloats(pixels));
+        try {
+            PixelAccess.readRGB(bufferedImage, grey);
+            float[] red = image[0].getData();
+            float[] green = image[1].getData();
+            float[] blue = image[2].getData();
+            for (int i = 0; i < pixels; i++) {
+                red[i] = (grey[i] >> 16) & 0xFF;
+                green[i] = (grey[i] >> 8) & 0xFF;
+                blue[i] = grey[i] & 0xFF;
             }
+            convolutionEngine.convolvePaddedSum(image, filter, convolvedPixels);
+            float[] convolved = convolvedPixels.getData();
+            for (int i = 0; i < pixels; i++) {
+                int value = fixOutOfRangeRGBValues(convolved[i]);
+                grey[i] = value << 16 | value << 8 | value;
+            }
+        } finally {
+            for (FloatImageBuffer channel : image) {
+                bufferPool.release(channel.getData());
+            }
+            bufferPool.release(convolvedPixels.getData());
         }
-        File outputFile = new File("EdgeDetection/edgesTmp.png");
-        ImageIO.write(writeBackImage, "png", outputFile);
-        return outputFile;
+    }
+
+    private ImageBuffer[] transformImageToArray(BufferedImage bufferedImage) {
+        int width = bufferedImage.getWidth();
+        int height = bufferedImage.getHeight();
+
+        ImageBuffer[] image = {new ImageBuffer(width, height), new ImageBuffer(width, height), new ImageBuffer(width, height)};
+        PixelAccess.readChannels(bufferedImage, image[0].getData(), image[1].getData(), image[2].getData());
+        return image;
+    }
+
+    private BufferedImage createImageFromConvolutionMatrix(BufferedImage originalImage, ImageBuffer imageRGB) {
+        double[] pixels = imageRGB.getData();
+        int[] grey = new int[imageRGB.getWidth() * imageRGB.getHeight()];
+        for (int i = 0; i < grey.length; i++) {
+            int value = fixOutOfRangeRGBValues(pixels[i]);
+            grey[i] = value << 16 | value << 8 | value;
+        }
+        return PixelAccess.createRGB(originalImage.getWidth(), originalImage.getHeight(), grey);
     }
 
     private int fixOutOfRangeRGBValues(double value) {
@@ -101,19 +297,7 @@ public class EdgeDetection {
         }
     }
 
-    private HashMap<String, double[][]> buildFilterMap() {
-        HashMap<String, double[][]> filterMap;
-        filterMap = new HashMap<>();
-        filterMap.put(VERTICAL_FILTER, FILTER_VERTICAL);
-        filterMap.put(HORIZONTAL_FILTER, FILTER_HORIZONTAL);
-
-        filterMap.put(SOBEL_FILTER_VERTICAL, FILTER_SOBEL_V);
-        filterMap.put(SOBEL_FILTER_HORIZONTAL, FILTER_SOBEL_H);
-
-        filterMap.put(SCHARR_FILTER_VETICAL, FILTER_SCHARR_V);
-        filterMap.put(SCHARR_FILTER_HORIZONTAL, FILTER_SCHARR_H);
-        return filterMap;
+    private int fixOutOfRangeRGBValues(int value) {
+        return Math.min(Math.abs(value), 255);
     }
-
-
 }
@@ -0,0 +1,96 @@
+package ramo.klevis.ml;
+
+import ramo.klevis.ml.image.PixelAccess;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A thread-safe front for {@link EdgeDetection} serving many requests. The
+ * channel and convolution arrays of every request come from a shared
+ * {@link BufferPool} and go back to it afterwards, so once the pool is warm a
+ * request with a convolution filter allocates nothing but its result. With
+ * {@link #detectEdges(BufferedImage, String, BufferedImage)} not even that.
+ * <p>
+ * The gradient magnitude and Canny are delegated unpooled.
+ */
+public class EdgeDetectionService {
+
+    /**
+     * Enough for the scratch arrays of a few concurrent 4K requests in double precision.
+     */
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 512L * 1024 * 1024;
+
+    private final EdgeDetection edgeDetection;
+    private final BufferPool bufferPool;
+
+    public EdgeDetectionService() {
+        this(new EdgeDetection(), DEFAULT_MAX_RETAINED_BYTES);
+    }
+
+    /**
+     * @param edgeDetection    the edge detection doing the work
+     * @param maxRetainedBytes how many bytes of idle scratch arrays the pool keeps
+     */
+    public EdgeDetectionService(EdgeDetection edgeDetection, long maxRetainedBytes) {
+        this.edgeDetection = edgeDetection;
+        this.bufferPool = new BufferPool(maxRetainedBytes);
+    }
+
+    /**
+     * @param image          the source image
+     * @param selectedFilter one of the filter names of {@link EdgeDetection}
+     * @return a new grey image of the same size with the edges
+     */
+    public BufferedImage detectEdges(BufferedImage image, String selectedFilter) {
+        if (isGradientFilter(selectedFilter)) {
+            return edgeDetection.detectEdgesAsImage(image, selectedFilter);
+        }
+        Kernel filter = edgeDetection.getFilter(selectedFilter);
+        int[] grey = new int[image.getWidth() * image.getHeight()];
+        edgeDetection.detectEdges(image, filter, grey, bufferPool);
+        return PixelAccess.createRGB(image.getWidth(), image.getHeight(), grey);
+    }
+
+    /**
+     * Writes the edges into an existing image, e.g. one kept per video stream.
+     *
+     * @param image          the source image
+     * @param selectedFilter one of the filter names of {@link EdgeDetection}
+     * @param destination    receives the edges, same size as the source
+     */
+    public void detectEdges(BufferedImage image, String selectedFilter, BufferedImage destination) {
+        if (destination.getWidth() != image.getWidth() || destination.getHeight() != image.getHeight()) {
+            throw new IllegalArgumentException("Destination " + destination.getWidth() + "x" + destination.getHeight()
+                    + " does not match source " + image.getWidth() + "x" + image.getHeight());
+        }
+        if (isGradientFilter(selectedFilter)) {
+            PixelAccess.writeRGB(destination, PixelAccess.readRGB(
+                    edgeDetection.detectEdgesAsImage(image, selectedFilter), null));
+            return;
+        }
+        Kernel filter = edgeDetection.getFilter(selectedFilter);
+        int[] grey = bufferPool.takeInts(image.getWidth() * image.getHeight());
+        try {
+            edgeDetection.detectEdges(image, filter, grey, bufferPool);
+            PixelAccess.writeRGB(destination, grey);
+        } finally {
+            bufferPool.release(grey);
+        }
+    }
+
+    public EdgeDetection getEdgeDetection() {
+        return edgeDetection;
+    }
+
+    /**
+     * @return the pool with its hit, miss and retained bytes counters
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    private boolean isGradientFilter(String selectedFilter) {
+        return EdgeDetection.SOBEL_GRADIENT_MAGNITUDE.equals(selectedFilter)
+                || EdgeDetection.CANNY.equals(selectedFilter);
+    }
+}
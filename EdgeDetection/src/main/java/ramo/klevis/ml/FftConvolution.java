@@ -0,0 +1,344 @@
+package ramo.klevis.ml;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Convolution through the Fourier transform, for kernels too large for the
+ * direct loops. The image is zero padded to power of two sizes P x Q and the
+ * output is {@code inverse(F(image) * conj(F(kernel)))}, the conjugate turning
+ * the product into the correlation the direct loops compute. The padding needs
+ * no room for the kernel: the circular wrap only reaches outputs the padded
+ * convolution does not keep. Since the transform is linear the channels are
+ * summed before it, so one forward and one inverse transform serve them all.
+ * <p>
+ * The results equal the direct loops up to floating point rounding.
+ * <p>
+ * Kernel spectra are cached per kernel values and padded size, so a kernel
+ * applied to images of the same size is transformed once, also when every call
+ * builds a new {@link Kernel} from the same array. The cache keeps the most
+ * recently used spectra up to a number of bytes, a spectrum takes 16 bytes per
+ * padded point: 64 MB for a 1080p frame (2048 x 2048) and 256 MB for a 4K or
+ * 12 MP one (4096 x 4096). A spectrum above the limit is never cached.
+ * <p>
+ * Given a pool, the row transforms and blocks of column transforms are split
+ * over its threads, like the tiles of the direct loops.
+ */
+public class FftConvolution {
+
+    /**
+     * Room for the spectrum of one 4K or 12 MP image, or of a few 1080p ones.
+     */
+    public static final long DEFAULT_MAX_CACHED_BYTES = 512L * 1024 * 1024;
+
+    private static final int COLUMN_BLOCK = 16;
+    private static final int MIN_TILE_ROWS = 16;
+
+    /**
+     * Relative cost of one butterfly per point and level against one direct
+     * multiply-add, measured on the scalar loops.
+     */
+    private static final double BUTTERFLY_COST = 2.5;
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private final long maxCachedBytes;
+    /**
+     * In access order, guarded by itself.
+     */
+    private final Map<SpectrumKey, double[][]> spectra = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+    private final Map<Integer, FourierTransform> transforms = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a single threaded convolution caching up to
+     * {@link #DEFAULT_MAX_CACHED_BYTES} of kernel spectra.
+     */
+    public FftConvolution() {
+        this(null, 1, DEFAULT_MAX_CACHED_BYTES);
+    }
+
+    /**
+     * @param pool           the pool the transforms are split over, null to run on the caller thread
+     * @param parallelism    the threads of the pool
+     * @param maxCachedBytes how many bytes of kernel spectra to keep at most
+     */
+    public FftConvolution(ForkJoinPool pool, int parallelism, long maxCachedBytes) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1 but was " + parallelism);
+        }
+        if (maxCachedBytes < 0) {
+            throw new IllegalArgumentException("Cached bytes must not be negative but was " + maxCachedBytes);
+        }
+        this.pool = parallelism == 1 ? null : pool;
+        this.parallelism = this.pool == null ? 1 : parallelism;
+        this.maxCachedBytes = maxCachedBytes;
+    }
+
+    /**
+     * Estimates whether the transform is cheaper than the direct loops, which
+     * cost {@code kernelWidth * kernelHeight} multiply-adds per output pixel and
+     * channel, or {@code kernelWidth + kernelHeight} for separable kernels. The
+     * transform costs two 2-D transforms of the padded image, plus one for the
+     * kernel when its spectrum is not cached yet, each about
+     * {@code P * Q * log2(P * Q)} butterfly steps. Both are split over the
+     * same threads, so the comparison does not depend on their number.
+     *
+     * @param kernel   the kernel
+     * @param width    the image width
+     * @param height   the image height
+     * @param channels the number of channels summed
+     * @return true if the transform should be used
+     */
+    public boolean isCheaper(Kernel kernel, int width, int height, int channels) {
+        int rows = height - kernel.getHeight() + 1;
+        int columns = width - kernel.getWidth() + 1;
+        if (rows <= 0 || columns <= 0) {
+            return false;
+        }
+        double taps = kernel.isSeparable()
+                ? kernel.getWidth() + kernel.getHeight()
+                : (double) kernel.getWidth() * kernel.getHeight();
+        double direct = (double) rows * columns * channels * taps;
+        int paddedHeight = FourierTransform.nextPowerOfTwo(height);
+        int paddedWidth = FourierTransform.nextPowerOfTwo(width);
+        double points = (double) paddedHeight * paddedWidth;
+        boolean cached;
+        synchronized (spectra) {
+            cached = spectra.containsKey(new SpectrumKey(kernel, paddedHeight, paddedWidth));
+        }
+        double transformsNeeded = cached ? 2 : 3;
+        double fourier = transformsNeeded * BUTTERFLY_COST * points * log2(points);
+        return fourier < direct;
+    }
+
+    /**
+     * Convolves every channel with the kernel and stores the sum of the results
+     * in the output, with the same layout as
+     * {@link ConvolutionEngine#convolvePaddedSum}. Only the part covered by the
+     * kernel is written, the border is left to the caller.
+     *
+     * @param channels the images to convolve, all the same size as the output
+     * @param kernel   the kernel
+     * @param output   the image receiving the sum
+     */
+    public void convolvePaddedSum(ImageBuffer[] channels, Kernel kernel, ImageBuffer output) {
+        int width = output.getWidth();
+        int height = output.getHeight();
+        int rows = height - kernel.getHeight() + 1;
+        int columns = width - kernel.getWidth() + 1;
+        if (rows <= 0 || columns <= 0) {
+            return;
+        }
+        int paddedHeight = FourierTransform.nextPowerOfTwo(height);
+        int paddedWidth = FourierTransform.nextPowerOfTwo(width);
+
+        double[] real = new double[paddedHeight * paddedWidth];
+        double[] imaginary = new double[paddedHeight * paddedWidth];
+        for (ImageBuffer channel : channels) {
+            double[] in = channel.getData();
+            for (int row = 0; row < height; row++) {
+                int source = row * width;
+                int target = row * paddedWidth;
+                for (int column = 0; column < width; column++) {
+                    real[target + column] += in[source + column];
+                }
+            }
+        }
+        transform2D(real, imaginary, paddedHeight, paddedWidth, height, false);
+
+        double[][] spectrum = spectrum(kernel, paddedHeight, paddedWidth);
+        double[] kernelReal = spectrum[0];
+        double[] kernelImaginary = spectrum[1];
+        for (int i = 0; i < real.length; i++) {
+            double a = real[i];
+            double b = imaginary[i];
+            double c = kernelReal[i];
+            double d = kernelImaginary[i];
+            real[i] = a * c + b * d;
+            imaginary[i] = b * c - a * d;
+        }
+        transform2D(real, imaginary, paddedHeight, paddedWidth, rows, true);
+
+        double scale = 1d / (paddedHeight * paddedWidth);
+        double[] out = output.getData();
+        int top = kernel.getHeight() / 2;
+        int left = kernel.getWidth() / 2;
+        for (int row = 0; row < rows; row++) {
+            int source = row * paddedWidth;
+            int target = (row + top) * width + left;
+            for (int column = 0; column < columns; column++) {
+                out[target + column] = real[source + column] * scale;
+            }
+        }
+    }
+
+    private double[][] spectrum(Kernel kernel, int paddedHeight, int paddedWidth) {
+        SpectrumKey key = new SpectrumKey(kernel, paddedHeight, paddedWidth);
+        double[][] spectrum;
+        synchronized (spectra) {
+            spectrum = spectra.get(key);
+        }
+        if (spectrum == null) {
+            double[][] values = kernel.values();
+            double[] real = new double[paddedHeight * paddedWidth];
+            double[] imaginary = new double[paddedHeight * paddedWidth];
+            for (int i = 0; i < kernel.getHeight(); i++) {
+                System.arraycopy(values[i], 0, real, i * paddedWidth, kernel.getWidth());
+            }
+            transform2D(real, imaginary, paddedHeight, paddedWidth, kernel.getHeight(), false);
+            spectrum = new double[][]{real, imaginary};
+            cache(key, spectrum);
+        }
+        return spectrum;
+    }
+
+    /**
+     * Adds the spectrum and drops the least recently used ones beyond the
+     * limit. A spectrum larger than the limit is not kept at all.
+     */
+    private void cache(SpectrumKey key, double[][] spectrum) {
+        long bytes = spectrumBytes(spectrum);
+        if (bytes > maxCachedBytes) {
+            return;
+        }
+        synchronized (spectra) {
+            double[][] previous = spectra.put(key, spectrum);
+            cachedBytes += bytes - (previous == null ? 0 : spectrumBytes(previous));
+            Iterator<double[][]> eldest = spectra.values().iterator();
+            while (cachedBytes > maxCachedBytes) {
+                cachedBytes -= spectrumBytes(eldest.next());
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the bytes of the kernel spectra currently cached
+     */
+    public long getCachedBytes() {
+        synchronized (spectra) {
+            return cachedBytes;
+        }
+    }
+
+    private static long spectrumBytes(double[][] spectrum) {
+        return (long) Double.BYTES * (spectrum[0].length + spectrum[1].length);
+    }
+
+    /**
+     * Transforms rows and columns in place. Only the first {@code usedRows}
+     * rows go through the row transform: before the forward transform the
+     * other rows are zero padding, after the inverse one nobody reads them.
+     */
+    private void transform2D(double[] real, double[] imaginary, int height, int width,
+                             int usedRows, boolean inverse) {
+        if (!inverse) {
+            transformRows(real, imaginary, width, usedRows, false);
+        }
+        transformColumns(real, imaginary, height, width, inverse);
+        if (inverse) {
+            transformRows(real, imaginary, width, usedRows, true);
+        }
+    }
+
+    private void transformRows(double[] real, double[] imaginary, int width, int rows, boolean inverse) {
+        FourierTransform rowTransform = transform(width);
+        runTiles(rows, MIN_TILE_ROWS, (fromRow, toRow) -> {
+            for (int row = fromRow; row < toRow; row++) {
+                rowTransform.transform(real, imaginary, row * width, inverse);
+            }
+        });
+    }
+
+    /**
+     * The columns are copied out {@value #COLUMN_BLOCK} at a time, so reading
+     * them walks along rows. Every tile of blocks has its own copy.
+     */
+    private void transformColumns(double[] real, double[] imaginary, int height, int width, boolean inverse) {
+        FourierTransform columnTransform = transform(height);
+        int block = Math.min(COLUMN_BLOCK, width);
+        runTiles(width / block, 1, (fromBlock, toBlock) -> {
+            double[] columnReal = new double[block * height];
+            double[] columnImaginary = new double[block * height];
+            for (int first = fromBlock * block; first < toBlock * block; first += block) {
+                for (int row = 0; row < height; row++) {
+                    int source = row * width + first;
+                    for (int column = 0; column < block; column++) {
+                        columnReal[column * height + row] = real[source + column];
+                        columnImaginary[column * height + row] = imaginary[source + column];
+                    }
+                }
+                for (int column = 0; column < block; column++) {
+                    columnTransform.transform(columnReal, columnImaginary, column * height, inverse);
+                }
+                for (int row = 0; row < height; row++) {
+                    int target = row * width + first;
+                    for (int column = 0; column < block; column++) {
+                        real[target + column] = columnReal[column * height + row];
+                        imaginary[target + column] = columnImaginary[column * height + row];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the range on the calling thread, or split in tiles on the pool.
+     */
+    private void runTiles(int count, int minTile, RowRange range) {
+        if (pool == null || count <= minTile) {
+            range.run(0, count);
+        } else {
+            pool.invoke(new TileTask(range, 0, count, Math.max(minTile, count / (parallelism * 4))));
+        }
+    }
+
+    private FourierTransform transform(int size) {
+        return transforms.computeIfAbsent(size, FourierTransform::new);
+    }
+
+    private static double log2(double value) {
+        return Math.log(value) / Math.log(2);
+    }
+
+    /**
+     * Kernels compare by their values, which decide the spectrum. Hashing them
+     * costs one pass over the kernel, little next to a transform.
+     */
+    private static class SpectrumKey {
+        private final double[][] values;
+        private final int height;
+        private final int width;
+        private final int hash;
+
+        SpectrumKey(Kernel kernel, int height, int width) {
+            this.values = kernel.values();
+            this.height = height;
+            this.width = width;
+            this.hash = (Arrays.deepHashCode(values) * 31 + height) * 31 + width;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SpectrumKey)) {
+                return false;
+            }
+            SpectrumKey that = (SpectrumKey) o;
+            return hash == that.hash && height == that.height && width == that.width
+                    && (values == that.values || Arrays.deepEquals(values, that.values));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
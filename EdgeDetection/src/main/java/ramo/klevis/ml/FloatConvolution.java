@@ -0,0 +1,64 @@
+package ramo.klevis.ml;
+
+/**
+ * The direct convolution loops over {@code float} channels. Used by
+ * {@link ConvolutionEngine}.
+ */
+class FloatConvolution {
+
+    static void convolveRows(FloatImageBuffer input, float[][] kernel, FloatImageBuffer output,
+                             int fromRow, int toRow, int columns, boolean accumulate) {
+        if (kernel.length == 3 && kernel[0].length == 3) {
+            convolve3x3(input, kernel, output, fromRow, toRow, columns, accumulate);
+        } else {
+            convolveGeneric(input, kernel, output, fromRow, toRow, columns, accumulate);
+        }
+    }
+
+    private static void convolve3x3(FloatImageBuffer input, float[][] kernel, FloatImageBuffer output,
+                                    int fromRow, int toRow, int columns, boolean accumulate) {
+        float k00 = kernel[0][0], k01 = kernel[0][1], k02 = kernel[0][2];
+        float k10 = kernel[1][0], k11 = kernel[1][1], k12 = kernel[1][2];
+        float k20 = kernel[2][0], k21 = kernel[2][1], k22 = kernel[2][2];
+        float[] in = input.getData();
+        float[] out = output.getData();
+        int width = input.getWidth();
+        for (int row = fromRow; row < toRow; row++) {
+            int row0 = row * width;
+            int row1 = row0 + width;
+            int row2 = row1 + width;
+            int target = row1 + 1;
+            for (int column = 0; column < columns; column++) {
+                float sum = k00 * in[row0 + column] + k01 * in[row0 + column + 1] + k02 * in[row0 + column + 2]
+                        + k10 * in[row1 + column] + k11 * in[row1 + column + 1] + k12 * in[row1 + column + 2]
+                        + k20 * in[row2 + column] + k21 * in[row2 + column + 1] + k22 * in[row2 + column + 2];
+                out[target + column] = accumulate ? out[target + column] + sum : sum;
+            }
+        }
+    }
+
+    private static void convolveGeneric(FloatImageBuffer input, float[][] kernel, FloatImageBuffer output,
+                                        int fromRow, int toRow, int columns, boolean accumulate) {
+        int kernelHeight = kernel.length;
+        int kernelWidth = kernel[0].length;
+        float[] in = input.getData();
+        float[] out = output.getData();
+        int width = input.getWidth();
+        int offset = (kernelHeight / 2) * width + kernelWidth / 2;
+        for (int row = fromRow; row < toRow; row++) {
+            int source = row * width;
+            int target = source + offset;
+            for (int column = 0; column < columns; column++) {
+                float sum = 0;
+                for (int i = 0; i < kernelHeight; i++) {
+                    float[] kernelRow = kernel[i];
+                    int start = source + i * width + column;
+                    for (int j = 0; j < kernelWidth; j++) {
+                        sum = sum + in[start + j] * kernelRow[j];
+                    }
+                }
+                out[target + column] = accumulate ? out[target + column] + sum : sum;
+            }
+        }
+    }
+}
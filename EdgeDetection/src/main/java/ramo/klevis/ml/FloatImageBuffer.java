@@ -0,0 +1,60 @@
+package ramo.klevis.ml;
+
+/**
+ * A single channel image kept in one row-major {@code float[]}, half the
+ * memory of an {@link ImageBuffer}.
+ */
+public class FloatImageBuffer {
+
+    private final int width;
+    private final int height;
+    private final float[] data;
+
+    public FloatImageBuffer(int width, int height) {
+        this(width, height, new float[width * height]);
+    }
+
+    /**
+     * Wraps an existing array, which must hold at least {@code width * height} values.
+     *
+     * @param width  the number of columns
+     * @param height the number of rows
+     * @param data   the row-major pixel values
+     */
+    public FloatImageBuffer(int width, int height, float[] data) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Negative image size " + width + "x" + height);
+        }
+        if (data.length < width * height) {
+            throw new IllegalArgumentException("Buffer of " + data.length
+                    + " values is too small for " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.data = data;
+    }
+
+    public float get(int row, int column) {
+        return data[row * width + column];
+    }
+
+    public void set(int row, int column, float value) {
+        data[row * width + column] = value;
+    }
+
+    public boolean sameSize(FloatImageBuffer other) {
+        return width == other.width && height == other.height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public float[] getData() {
+        return data;
+    }
+}
@@ -0,0 +1,88 @@
+package ramo.klevis.ml;
+
+/**
+ * An iterative radix-2 fast Fourier transform for one power of two size. The
+ * twiddle factors and the bit reversal permutation are computed once in the
+ * constructor, an instance holds no other state and can be shared by threads.
+ */
+public class FourierTransform {
+
+    private final int size;
+    private final double[] cos;
+    private final double[] sin;
+    private final int[] reversed;
+
+    /**
+     * @param size the number of points, a power of two
+     */
+    public FourierTransform(int size) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Size must be a power of two but was " + size);
+        }
+        this.size = size;
+        this.cos = new double[size / 2];
+        this.sin = new double[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            cos[i] = Math.cos(-2 * Math.PI * i / size);
+            sin[i] = Math.sin(-2 * Math.PI * i / size);
+        }
+        this.reversed = new int[size];
+        int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++) {
+            reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    /**
+     * Transforms {@code size} complex values in place. The inverse transform is
+     * not scaled, dividing by {@code size} is left to the caller.
+     *
+     * @param real      the real parts
+     * @param imaginary the imaginary parts
+     * @param offset    the index of the first value in both arrays
+     * @param inverse   true for the inverse transform
+     */
+    public void transform(double[] real, double[] imaginary, int offset, boolean inverse) {
+        for (int i = 0; i < size; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                double swap = real[offset + i];
+                real[offset + i] = real[offset + j];
+                real[offset + j] = swap;
+                swap = imaginary[offset + i];
+                imaginary[offset + i] = imaginary[offset + j];
+                imaginary[offset + j] = swap;
+            }
+        }
+        double sign = inverse ? -1 : 1;
+        for (int length = 2; length <= size; length <<= 1) {
+            int half = length >> 1;
+            int step = size / length;
+            for (int start = offset; start < offset + size; start += length) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cos[k * step];
+                    double wi = sign * sin[k * step];
+                    int even = start + k;
+                    int odd = even + half;
+                    double oddReal = real[odd] * wr - imaginary[odd] * wi;
+                    double oddImaginary = real[odd] * wi + imaginary[odd] * wr;
+                    real[odd] = real[even] - oddReal;
+                    imaginary[odd] = imaginary[even] - oddImaginary;
+                    real[even] += oddReal;
+                    imaginary[even] += oddImaginary;
+                }
+            }
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the smallest power of two not below the value
+     */
+    public static int nextPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+}
@@ -0,0 +1,22 @@
+package ramo.klevis.ml;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The Sobel gradient of an image, see {@link GradientOperator#gradient}.
+ * Both images have a zero border of one pixel.
+ */
+@Getter
+@AllArgsConstructor
+public class Gradient {
+    /**
+     * {@code sqrt(gx * gx + gy * gy)} per pixel.
+     */
+    private final ImageBuffer magnitude;
+    /**
+     * {@code atan2(gy, gx)} per pixel in radians, with x growing to the right
+     * and y growing downwards.
+     */
+    private final ImageBuffer orientation;
+}
@@ -0,0 +1,275 @@
+package ramo.klevis.ml;
+
+import java.util.Arrays;
+
+/**
+ * Computes the horizontal and vertical Sobel derivatives together in a single
+ * sweep over the channels, instead of convolving the image once per direction.
+ * Like the filters in {@link EdgeDetection} the derivatives are taken over the
+ * sum of all channels, so they are on the same scale as the Sobel filter output.
+ * <p>
+ * {@link #canny} goes on through non-maximum suppression and hysteresis. The
+ * gradient is only kept for the three rows the suppression looks at, the sole
+ * full-size array is the output itself.
+ */
+public class GradientOperator {
+
+    /**
+     * Default thresholds for {@link #canny}, for images whose three 8 bit
+     * channels are summed (0 to 765 per pixel).
+     */
+    public static final double DEFAULT_LOW_THRESHOLD = 150;
+    public static final double DEFAULT_HIGH_THRESHOLD = 450;
+
+    private static final double EDGE = 255;
+    private static final double WEAK = -1;
+
+    private static final double TAN_22_5 = Math.sqrt(2) - 1;
+    private static final double TAN_67_5 = Math.sqrt(2) + 1;
+
+    private static final byte HORIZONTAL = 0;
+    private static final byte VERTICAL = 1;
+    private static final byte FALLING_DIAGONAL = 2;
+    private static final byte RISING_DIAGONAL = 3;
+
+    /**
+     * Computes magnitude and orientation of the gradient.
+     *
+     * @param channels the images to differentiate, all the same size
+     * @return the gradient, same size as the channels
+     */
+    public Gradient gradient(ImageBuffer[] channels) {
+        int width = checkSize(channels);
+        int height = channels[0].getHeight();
+        ImageBuffer orientation = new ImageBuffer(width, height);
+        return new Gradient(gradient(channels, orientation.getData()), orientation);
+    }
+
+    /**
+     * Computes only the magnitude of the gradient, which saves the
+     * {@code atan2} per pixel and the orientation array.
+     *
+     * @param channels the images to differentiate, all the same size
+     * @return the gradient magnitude, same size as the channels
+     */
+    public ImageBuffer magnitude(ImageBuffer[] channels) {
+        checkSize(channels);
+        return gradient(channels, null);
+    }
+
+    /**
+     * @return the magnitude, and the orientation in {@code orientations} unless it is null
+     */
+    private ImageBuffer gradient(ImageBuffer[] channels, double[] orientations) {
+        int width = channels[0].getWidth();
+        int height = channels[0].getHeight();
+        ImageBuffer magnitude = new ImageBuffer(width, height);
+        double[] magnitudes = magnitude.getData();
+        double[] gx = new double[width];
+        double[] gy = new double[width];
+        for (int row = 1; row < height - 1; row++) {
+            derivatives(channels, row, gx, gy);
+            int offset = row * width;
+            for (int column = 1; column < width - 1; column++) {
+                magnitudes[offset + column] = Math.sqrt(gx[column] * gx[column] + gy[column] * gy[column]);
+            }
+            if (orientations != null) {
+                for (int column = 1; column < width - 1; column++) {
+                    orientations[offset + column] = Math.atan2(gy[column], gx[column]);
+                }
+            }
+        }
+        return magnitude;
+    }
+
+    /**
+     * Canny edge detection: keeps the pixels whose gradient magnitude is a
+     * local maximum along the gradient direction and at least the low
+     * threshold, and of those only the ones connected to a pixel reaching the
+     * high threshold.
+     *
+     * @param channels      the images to detect edges in, all the same size
+     * @param lowThreshold  the magnitude a pixel needs to extend an edge
+     * @param highThreshold the magnitude a pixel needs to start an edge
+     * @return 255 on the edges and 0 elsewhere, same size as the channels
+     */
+    public ImageBuffer canny(ImageBuffer[] channels, double lowThreshold, double highThreshold) {
+        if (lowThreshold > highThreshold) {
+            throw new IllegalArgumentException("Low threshold " + lowThreshold
+                    + " is above high threshold " + highThreshold);
+        }
+        int width = checkSize(channels);
+        int height = channels[0].getHeight();
+        ImageBuffer edges = new ImageBuffer(width, height);
+        if (width < 3 || height < 3) {
+            return edges;
+        }
+        double[] out = edges.getData();
+        double[][] magnitudes = new double[3][width];
+        byte[][] directions = new byte[3][width];
+        double[] gx = new double[width];
+        double[] gy = new double[width];
+        IntStack strong = new IntStack();
+
+        // The window holds the gradient of rows row - 1, row and row + 1, the
+        // rows above the first and below the last one are all zero.
+        for (int row = 1; row < height - 1; row++) {
+            if (row == 1) {
+                gradientRow(channels, 1, gx, gy, magnitudes[1], directions[1]);
+            }
+            double[] above = magnitudes[(row - 1) % 3];
+            double[] current = magnitudes[row % 3];
+            double[] below = magnitudes[(row + 1) % 3];
+            if (row + 1 < height - 1) {
+                gradientRow(channels, row + 1, gx, gy, below, directions[(row + 1) % 3]);
+            } else {
+                Arrays.fill(below, 0);
+            }
+            byte[] direction = directions[row % 3];
+            int offset = row * width;
+            for (int column = 1; column < width - 1; column++) {
+                double value = current[column];
+                if (value < lowThreshold || value == 0) {
+                    continue;
+                }
+                double before;
+                double after;
+                switch (direction[column]) {
+                    case HORIZONTAL:
+                        before = current[column - 1];
+                        after = current[column + 1];
+                        break;
+                    case VERTICAL:
+                        before = above[column];
+                        after = below[column];
+                        break;
+                    case FALLING_DIAGONAL:
+                        before = above[column - 1];
+                        after = below[column + 1];
+                        break;
+                    default:
+                        before = below[column - 1];
+                        after = above[column + 1];
+                        break;
+                }
+                if (value >= before && value > after) {
+                    if (value >= highThreshold) {
+                        out[offset + column] = EDGE;
+                        strong.push(offset + column);
+                    } else {
+                        out[offset + column] = WEAK;
+                    }
+                }
+            }
+        }
+
+        while (!strong.isEmpty()) {
+            int index = strong.pop();
+            for (int dy = -width; dy <= width; dy += width) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int neighbour = index + dy + dx;
+                    if (out[neighbour] == WEAK) {
+                        out[neighbour] = EDGE;
+                        strong.push(neighbour);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < out.length; i++) {
+            if (out[i] == WEAK) {
+                out[i] = 0;
+            }
+        }
+        return edges;
+    }
+
+    private int checkSize(ImageBuffer[] channels) {
+        if (channels.length == 0) {
+            throw new IllegalArgumentException("At least one channel is needed");
+        }
+        for (ImageBuffer channel : channels) {
+            if (!channel.sameSize(channels[0])) {
+                throw new IllegalArgumentException("Channels must have the same size");
+            }
+        }
+        return channels[0].getWidth();
+    }
+
+    private void gradientRow(ImageBuffer[] channels, int row, double[] gx, double[] gy,
+                             double[] magnitude, byte[] direction) {
+        derivatives(channels, row, gx, gy);
+        int last = magnitude.length - 1;
+        magnitude[0] = 0;
+        magnitude[last] = 0;
+        for (int column = 1; column < last; column++) {
+            double x = gx[column];
+            double y = gy[column];
+            magnitude[column] = Math.sqrt(x * x + y * y);
+            direction[column] = quantize(x, y);
+        }
+    }
+
+    /**
+     * Sums the 3x3 Sobel derivatives of all channels for the inner columns of a row.
+     */
+    private void derivatives(ImageBuffer[] channels, int row, double[] gx, double[] gy) {
+        int width = channels[0].getWidth();
+        Arrays.fill(gx, 0);
+        Arrays.fill(gy, 0);
+        for (ImageBuffer channel : channels) {
+            double[] in = channel.getData();
+            int middle = row * width;
+            int up = middle - width;
+            int down = middle + width;
+            for (int column = 1; column < width - 1; column++) {
+                double upLeft = in[up + column - 1];
+                double upRight = in[up + column + 1];
+                double downLeft = in[down + column - 1];
+                double downRight = in[down + column + 1];
+                gx[column] += upRight + 2 * in[middle + column + 1] + downRight
+                        - upLeft - 2 * in[middle + column - 1] - downLeft;
+                gy[column] += downLeft + 2 * in[down + column] + downRight
+                        - upLeft - 2 * in[up + column] - upRight;
+            }
+        }
+    }
+
+    /**
+     * Rounds the gradient direction to one of the four neighbour axes, without
+     * computing the angle.
+     */
+    private static byte quantize(double gx, double gy) {
+        double x = Math.abs(gx);
+        double y = Math.abs(gy);
+        if (y <= x * TAN_22_5) {
+            return HORIZONTAL;
+        }
+        if (y >= x * TAN_67_5) {
+            return VERTICAL;
+        }
+        return (gx > 0) == (gy > 0) ? FALLING_DIAGONAL : RISING_DIAGONAL;
+    }
+
+    /**
+     * A growable stack of pixel indexes for the hysteresis flood fill.
+     */
+    private static class IntStack {
+        private int[] values = new int[1024];
+        private int size;
+
+        void push(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int pop() {
+            return values[--size];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package ramo.klevis.ml;
+
+/**
+ * A single channel image kept in one row-major {@code double[]}, so the pixel
+ * at (row, column) lives at {@code row * width + column}. Compared to a jagged
+ * {@code double[][]} this is one allocation and rows are contiguous in memory.
+ */
+public class ImageBuffer {
+
+    private final int width;
+    private final int height;
+    private final double[] data;
+
+    public ImageBuffer(int width, int height) {
+        this(width, height, new double[width * height]);
+    }
+
+    /**
+     * Wraps an existing array, which must hold at least {@code width * height} values.
+     *
+     * @param width  the number of columns
+     * @param height the number of rows
+     * @param data   the row-major pixel values
+     */
+    public ImageBuffer(int width, int height, double[] data) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Negative image size " + width + "x" + height);
+        }
+        if (data.length < width * height) {
+            throw new IllegalArgumentException("Buffer of " + data.length
+                    + " values is too small for " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.data = data;
+    }
+
+    /**
+     * Copies a jagged array indexed as {@code rows[row][column]}.
+     *
+     * @param rows the 2D array representing the image
+     * @return the flat copy
+     */
+    public static ImageBuffer fromArray(double[][] rows) {
+        int height = rows.length;
+        int width = height == 0 ? 0 : rows[0].length;
+        ImageBuffer buffer = new ImageBuffer(width, height);
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(rows[row], 0, buffer.data, row * width, width);
+        }
+        return buffer;
+    }
+
+    /**
+     * @return a jagged copy indexed as {@code [row][column]}
+     */
+    public double[][] toArray() {
+        double[][] rows = new double[height][width];
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(data, row * width, rows[row], 0, width);
+        }
+        return rows;
+    }
+
+    public double get(int row, int column) {
+        return data[row * width + column];
+    }
+
+    public void set(int row, int column, double value) {
+        data[row * width + column] = value;
+    }
+
+    public boolean sameSize(ImageBuffer other) {
+        return width == other.width && height == other.height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double[] getData() {
+        return data;
+    }
+}
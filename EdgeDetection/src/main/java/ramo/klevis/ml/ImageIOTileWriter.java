@@ -0,0 +1,84 @@
+package ramo.klevis.ml;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+/**
+ * Writes the tiles through an {@link ImageWriter} that first writes an empty
+ * image and then replaces its pixels region by region.
+ */
+class ImageIOTileWriter implements TileWriter {
+
+    private final ImageWriter writer;
+    private final ImageOutputStream output;
+
+    private ImageIOTileWriter(ImageWriter writer, ImageOutputStream output) {
+        this.writer = writer;
+        this.output = output;
+    }
+
+    static ImageIOTileWriter open(File file, String suffix, int width, int height) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix(suffix);
+        while (writers.hasNext()) {
+            ImageWriter writer = writers.next();
+            if (!writer.getOriginatingProvider().canEncodeImage(
+                    ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_GRAY))) {
+                writer.dispose();
+                continue;
+            }
+            Files.deleteIfExists(file.toPath());
+            ImageOutputStream output = ImageIO.createImageOutputStream(file);
+            try {
+                writer.setOutput(output);
+                if (writer.canWriteEmpty()) {
+                    writer.prepareWriteEmpty(null,
+                            ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_BYTE_GRAY),
+                            width, height, null, null, writer.getDefaultWriteParam());
+                    if (writer.canReplacePixels(0)) {
+                        return new ImageIOTileWriter(writer, output);
+                    }
+                    writer.abort();
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                // try the next writer
+            }
+            writer.dispose();
+            output.close();
+        }
+        Files.deleteIfExists(file.toPath());
+        throw new IOException("No image writer for " + suffix + " can write tiles, use a .pgm file instead");
+    }
+
+    @Override
+    public void write(int x, int y, int width, int height, byte[] grey) throws IOException {
+        Raster raster = Raster.createInterleavedRaster(new DataBufferByte(grey, width * height),
+                width, height, width, 1, new int[]{0}, null);
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setDestinationOffset(new Point(x, y));
+        writer.prepareReplacePixels(0, new Rectangle(x, y, width, height));
+        writer.replacePixels(raster, param);
+        writer.endReplacePixels();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.endWriteEmpty();
+        } finally {
+            writer.dispose();
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ramo.klevis.ml;
+
+/**
+ * The direct convolution loops over unsigned 8 bit channels with integer
+ * kernels, accumulating in {@code int}. Used by {@link ConvolutionEngine}.
+ */
+class IntegerConvolution {
+
+    static void convolveRows(ByteImageBuffer input, int[][] kernel, int[] out,
+                             int fromRow, int toRow, int columns, boolean accumulate) {
+        if (kernel.length == 3 && kernel[0].length == 3) {
+            convolve3x3(input, kernel, out, fromRow, toRow, columns, accumulate);
+        } else {
+            convolveGeneric(input, kernel, out, fromRow, toRow, columns, accumulate);
+        }
+    }
+
+    private static void convolve3x3(ByteImageBuffer input, int[][] kernel, int[] out,
+                                    int fromRow, int toRow, int columns, boolean accumulate) {
+        int k00 = kernel[0][0], k01 = kernel[0][1], k02 = kernel[0][2];
+        int k10 = kernel[1][0], k11 = kernel[1][1], k12 = kernel[1][2];
+        int k20 = kernel[2][0], k21 = kernel[2][1], k22 = kernel[2][2];
+        byte[] in = input.getData();
+        int width = input.getWidth();
+        for (int row = fromRow; row < toRow; row++) {
+            int row0 = row * width;
+            int row1 = row0 + width;
+            int row2 = row1 + width;
+            int target = row1 + 1;
+            for (int column = 0; column < columns; column++) {
+                int sum = k00 * (in[row0 + column] & 0xFF) + k01 * (in[row0 + column + 1] & 0xFF)
+                        + k02 * (in[row0 + column + 2] & 0xFF)
+                        + k10 * (in[row1 + column] & 0xFF) + k11 * (in[row1 + column + 1] & 0xFF)
+                        + k12 * (in[row1 + column + 2] & 0xFF)
+                        + k20 * (in[row2 + column] & 0xFF) + k21 * (in[row2 + column + 1] & 0xFF)
+                        + k22 * (in[row2 + column + 2] & 0xFF);
+                out[target + column] = accumulate ? out[target + column] + sum : sum;
+            }
+        }
+    }
+
+    private static void convolveGeneric(ByteImageBuffer input, int[][] kernel, int[] out,
+                                        int fromRow, int toRow, int columns, boolean accumulate) {
+        int kernelHeight = kernel.length;
+        int kernelWidth = kernel[0].length;
+        byte[] in = input.getData();
+        int width = input.getWidth();
+        int offset = (kernelHeight / 2) * width + kernelWidth / 2;
+        for (int row = fromRow; row < toRow; row++) {
+            int source = row * width;
+            int target = source + offset;
+            for (int column = 0; column < columns; column++) {
+                int sum = 0;
+                for (int i = 0; i < kernelHeight; i++) {
+                    int[] kernelRow = kernel[i];
+                    int start = source + i * width + column;
+                    for (int j = 0; j < kernelWidth; j++) {
+                        sum += (in[start + j] & 0xFF) * kernelRow[j];
+                    }
+                }
+                out[target + column] = accumulate ? out[target + column] + sum : sum;
+            }
+        }
+    }
+}
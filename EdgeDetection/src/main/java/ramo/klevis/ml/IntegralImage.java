@@ -0,0 +1,250 @@
+package ramo.klevis.ml;
+
+/**
+ * A summed-area table of an image and of its squares. Entry (row, column)
+ * holds the sum of all pixels above and left of it, so the sum over any
+ * rectangle takes four lookups whatever its size. Box filters, local means
+ * and local variances cost the same per pixel for a 3x3 and a 101x101 window,
+ * while {@link Convolution} costs grow with the kernel area.
+ * <p>
+ * The table is built one row at a time through {@link #addRow}, so a caller
+ * reading an image in strips can query every window whose rows have already
+ * been added. The table has a leading row and column of zeros, which removes
+ * all border checks from the lookups.
+ */
+public class IntegralImage {
+
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final double[] sums;
+    private final double[] squareSums;
+    private int rows;
+
+    /**
+     * Creates an empty table to be filled with {@link #addRow}.
+     *
+     * @param width  the number of columns
+     * @param height the number of rows
+     */
+    public IntegralImage(int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Negative image size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = width + 1;
+        this.sums = new double[stride * (height + 1)];
+        this.squareSums = new double[stride * (height + 1)];
+    }
+
+    /**
+     * @param image the image to sum
+     * @return the complete table of the image
+     */
+    public static IntegralImage of(ImageBuffer image) {
+        IntegralImage integralImage = new IntegralImage(image.getWidth(), image.getHeight());
+        for (int row = 0; row < image.getHeight(); row++) {
+            integralImage.addRow(image.getData(), row * image.getWidth());
+        }
+        return integralImage;
+    }
+
+    /**
+     * Appends the next image row.
+     *
+     * @param values the array holding the row
+     * @param offset the index of the row's first pixel in the array
+     */
+    public void addRow(double[] values, int offset) {
+        if (rows == height) {
+            throw new IllegalArgumentException("All " + height + " rows have already been added");
+        }
+        int previous = rows * stride;
+        int current = previous + stride;
+        double rowSum = 0;
+        double rowSquareSum = 0;
+        for (int column = 0; column < width; column++) {
+            double value = values[offset + column];
+            rowSum += value;
+            rowSquareSum += value * value;
+            sums[current + column + 1] = sums[previous + column + 1] + rowSum;
+            squareSums[current + column + 1] = squareSums[previous + column + 1] + rowSquareSum;
+        }
+        rows++;
+    }
+
+    /**
+     * @return the sum of the pixels in rows {@code [top, bottom)} and columns {@code [left, right)}
+     */
+    public double sum(int top, int left, int bottom, int right) {
+        checkRectangle(top, left, bottom, right);
+        return rectangle(sums, top, left, bottom, right);
+    }
+
+    /**
+     * @return the sum of the squared pixels in rows {@code [top, bottom)} and columns {@code [left, right)}
+     */
+    public double squareSum(int top, int left, int bottom, int right) {
+        checkRectangle(top, left, bottom, right);
+        return rectangle(squareSums, top, left, bottom, right);
+    }
+
+    /**
+     * The mean of the {@code (2 * radius + 1)} square window centered on a
+     * pixel. Near the border the window is cut to the image and the mean is
+     * taken over the pixels left.
+     *
+     * @param row    the pixel row
+     * @param column the pixel column
+     * @param radius the distance from the center to the window edge
+     * @return the local mean
+     */
+    public double mean(int row, int column, int radius) {
+        int top = Math.max(0, row - radius);
+        int left = Math.max(0, column - radius);
+        int bottom = Math.min(height, row + radius + 1);
+        int right = Math.min(width, column + radius + 1);
+        return sum(top, left, bottom, right) / ((bottom - top) * (right - left));
+    }
+
+    /**
+     * The variance of the same window as {@link #mean}, computed as
+     * {@code E[x^2] - E[x]^2}.
+     *
+     * @param row    the pixel row
+     * @param column the pixel column
+     * @param radius the distance from the center to the window edge
+     * @return the local variance, never negative
+     */
+    public double variance(int row, int column, int radius) {
+        int top = Math.max(0, row - radius);
+        int left = Math.max(0, column - radius);
+        int bottom = Math.min(height, row + radius + 1);
+        int right = Math.min(width, column + radius + 1);
+        double area = (bottom - top) * (right - left);
+        double mean = sum(top, left, bottom, right) / area;
+        double variance = squareSum(top, left, bottom, right) / area - mean * mean;
+        return Math.max(0, variance);
+    }
+
+    /**
+     * Averages every {@code kernelWidth x kernelHeight} window, with the same
+     * output layout as {@link ConvolutionEngine#convolvePadded} and a kernel
+     * whose entries are all {@code 1 / (kernelWidth * kernelHeight)}: the
+     * result is centered in the output and the border the window does not fit
+     * in is zero.
+     *
+     * @param kernelWidth  the window width
+     * @param kernelHeight the window height
+     * @return the filtered image
+     */
+    public ImageBuffer boxFilter(int kernelWidth, int kernelHeight) {
+        checkComplete();
+        if (kernelWidth < 1 || kernelHeight < 1) {
+            throw new IllegalArgumentException("Window must not be empty but was " + kernelWidth + "x" + kernelHeight);
+        }
+        ImageBuffer output = new ImageBuffer(width, height);
+        double[] out = output.getData();
+        double area = (double) kernelWidth * kernelHeight;
+        int top = kernelHeight / 2;
+        int left = kernelWidth / 2;
+        for (int row = 0; row + kernelHeight <= height; row++) {
+            int target = (row + top) * width + left;
+            for (int column = 0; column + kernelWidth <= width; column++) {
+                out[target + column] = rectangle(sums, row, column, row + kernelHeight, column + kernelWidth) / area;
+            }
+        }
+        return output;
+    }
+
+    /**
+     * @param radius the distance from the center to the window edge
+     * @return {@link #mean} of every pixel
+     */
+    public ImageBuffer localMean(int radius) {
+        checkComplete();
+        ImageBuffer output = new ImageBuffer(width, height);
+        double[] out = output.getData();
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                out[row * width + column] = mean(row, column, radius);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * @param radius the distance from the center to the window edge
+     * @return {@link #variance} of every pixel
+     */
+    public ImageBuffer localVariance(int radius) {
+        checkComplete();
+        ImageBuffer output = new ImageBuffer(width, height);
+        double[] out = output.getData();
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                out[row * width + column] = variance(row, column, radius);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Marks the pixels brighter than their surroundings, which copes with
+     * uneven lighting where a single global threshold does not.
+     *
+     * @param radius the distance from the center to the window edge
+     * @param offset how far above the local mean a pixel has to be
+     * @return 255 where the pixel exceeds its local mean plus the offset, 0 elsewhere
+     */
+    public ImageBuffer adaptiveThreshold(int radius, double offset) {
+        checkComplete();
+        ImageBuffer output = new ImageBuffer(width, height);
+        double[] out = output.getData();
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                double value = rectangle(sums, row, column, row + 1, column + 1);
+                out[row * width + column] = value > mean(row, column, radius) + offset ? 255 : 0;
+            }
+        }
+        return output;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the number of rows added so far
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    private double rectangle(double[] table, int top, int left, int bottom, int right) {
+        return table[bottom * stride + right] - table[top * stride + right]
+                - table[bottom * stride + left] + table[top * stride + left];
+    }
+
+    private void checkRectangle(int top, int left, int bottom, int right) {
+        if (top < 0 || left < 0 || top > bottom || left > right || right > width) {
+            throw new IllegalArgumentException("Rectangle rows " + top + "-" + bottom
+                    + " columns " + left + "-" + right + " is outside " + width + "x" + height);
+        }
+        if (bottom > rows) {
+            throw new IllegalArgumentException("Row " + (bottom - 1) + " has not been added yet, only "
+                    + rows + " rows have");
+        }
+    }
+
+    private void checkComplete() {
+        if (rows < height) {
+            throw new IllegalArgumentException("Only " + rows + " of " + height + " rows have been added");
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package ramo.klevis.ml;
+
+/**
+ * An immutable convolution kernel. The kernel is analysed once when it is
+ * created so the convolution does not need to inspect it again per pixel.
+ * <p>
+ * A kernel is separable when it is the outer product of a column vector and a
+ * row vector ({@code kernel[i][j] == column[i] * row[j]}), that is when its rank
+ * is one. Every Sobel, Scharr and Prewitt filter is separable, which lets the
+ * convolution run as a vertical 1-D pass followed by a horizontal one.
+ * <p>
+ * A kernel is integer when every entry is a whole number, like all of the
+ * edge detection filters. Such kernels can be applied to 8 bit pixels with
+ * exact {@code int} arithmetic, see {@link Precision#INTEGER}.
+ * <p>
+ * A kernel is horizontally symmetric when every row reads the same backwards
+ * and antisymmetric when it reads negated backwards, like the vertical Sobel
+ * filter whose middle column is zero. Such kernels are folded: the two pixels
+ * under mirrored taps are added or subtracted first and multiplied once, which
+ * halves the multiplications. Zero taps are left out altogether. The result is
+ * kept as a {@link CompiledKernel}.
+ */
+public class Kernel {
+
+    /**
+     * How the entries on one side of the kernel relate to their mirror images.
+     */
+    public enum Symmetry {
+        NONE, SYMMETRIC, ANTISYMMETRIC
+    }
+
+    private static final double SEPARABLE_TOLERANCE = 1e-9;
+
+    private final double[][] values;
+    private final int width;
+    private final int height;
+    private final double[] columnFactors;
+    private final double[] rowFactors;
+    private final int[][] integerValues;
+    private final float[][] floatValues;
+    private final Symmetry horizontalSymmetry;
+    private final Symmetry verticalSymmetry;
+    private final CompiledKernel compiled;
+
+    public Kernel(double[][] values) {
+        if (values.length == 0 || values[0].length == 0) {
+            throw new IllegalArgumentException("Kernel must not be empty");
+        }
+        this.height = values.length;
+        this.width = values[0].length;
+        this.values = new double[height][];
+        for (int i = 0; i < height; i++) {
+            if (values[i].length != width) {
+                throw new IllegalArgumentException("Kernel rows must have the same length");
+            }
+            this.values[i] = values[i].clone();
+        }
+        double[][] factors = factorRankOne(this.values);
+        this.columnFactors = factors == null ? null : factors[0];
+        this.rowFactors = factors == null ? null : factors[1];
+        this.integerValues = toIntegers(this.values);
+        this.floatValues = new float[height][width];
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                floatValues[i][j] = (float) this.values[i][j];
+            }
+        }
+        this.horizontalSymmetry = symmetry(this.values, false);
+        this.verticalSymmetry = symmetry(this.values, true);
+        this.compiled = CompiledKernel.compile(this);
+    }
+
+    /**
+     * Compares every entry with its mirror image across the vertical axis, or
+     * across the horizontal axis for the vertical symmetry.
+     */
+    private static Symmetry symmetry(double[][] values, boolean vertical) {
+        int height = values.length;
+        int width = values[0].length;
+        boolean symmetric = true;
+        boolean antisymmetric = true;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                double mirror = vertical ? values[height - 1 - i][j] : values[i][width - 1 - j];
+                symmetric &= values[i][j] == mirror;
+                antisymmetric &= values[i][j] == -mirror;
+            }
+        }
+        return symmetric ? Symmetry.SYMMETRIC : antisymmetric ? Symmetry.ANTISYMMETRIC : Symmetry.NONE;
+    }
+
+    /**
+     * @return the entries as ints, or null if one of them is not a whole number
+     */
+    private static int[][] toIntegers(double[][] values) {
+        int[][] integers = new int[values.length][values[0].length];
+        for (int i = 0; i < values.length; i++) {
+            for (int j = 0; j < values[i].length; j++) {
+                double value = values[i][j];
+                if (value != Math.rint(value) || Math.abs(value) > Integer.MAX_VALUE) {
+                    return null;
+                }
+                integers[i][j] = (int) value;
+            }
+        }
+        return integers;
+    }
+
+    /**
+     * Tries to write the kernel as the outer product of a column and a row.
+     * The row through the largest absolute entry, divided by that entry, gives
+     * the row factors and the column through it gives the column factors. The
+     * kernel is separable if their product reproduces every entry.
+     *
+     * @return the column and row factors, or null when the rank is above one
+     */
+    private static double[][] factorRankOne(double[][] values) {
+        int height = values.length;
+        int width = values[0].length;
+        int pivotRow = 0;
+        int pivotColumn = 0;
+        double max = 0;
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                if (Math.abs(values[i][j]) > max) {
+                    max = Math.abs(values[i][j]);
+                    pivotRow = i;
+                    pivotColumn = j;
+                }
+            }
+        }
+        double[] column = new double[height];
+        double[] row = new double[width];
+        if (max == 0) {
+            return new double[][]{column, row};
+        }
+        double pivot = values[pivotRow][pivotColumn];
+        for (int i = 0; i < height; i++) {
+            column[i] = values[i][pivotColumn];
+        }
+        for (int j = 0; j < width; j++) {
+            row[j] = values[pivotRow][j] / pivot;
+        }
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                if (Math.abs(column[i] * row[j] - values[i][j]) > SEPARABLE_TOLERANCE * max) {
+                    return null;
+                }
+            }
+        }
+        return new double[][]{column, row};
+    }
+
+    public double get(int row, int column) {
+        return values[row][column];
+    }
+
+    /**
+     * @return a copy of the kernel values indexed as {@code [row][column]}
+     */
+    public double[][] toArray() {
+        double[][] copy = new double[height][];
+        for (int i = 0; i < height; i++) {
+            copy[i] = values[i].clone();
+        }
+        return copy;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isSeparable() {
+        return columnFactors != null;
+    }
+
+    /**
+     * @return the vertical factors, one per kernel row, or null if not separable
+     */
+    public double[] getColumnFactors() {
+        return columnFactors == null ? null : columnFactors.clone();
+    }
+
+    /**
+     * @return the horizontal factors, one per kernel column, or null if not separable
+     */
+    public double[] getRowFactors() {
+        return rowFactors == null ? null : rowFactors.clone();
+    }
+
+    public boolean isInteger() {
+        return integerValues != null;
+    }
+
+    /**
+     * @return whether mirrored entries left and right are equal or negated
+     */
+    public Symmetry getHorizontalSymmetry() {
+        return horizontalSymmetry;
+    }
+
+    /**
+     * @return whether mirrored entries above and below are equal or negated
+     */
+    public Symmetry getVerticalSymmetry() {
+        return verticalSymmetry;
+    }
+
+    /**
+     * @return whether a whole column of the kernel is zero
+     */
+    public boolean hasZeroColumn() {
+        for (int j = 0; j < width; j++) {
+            boolean zero = true;
+            for (int i = 0; i < height; i++) {
+                zero &= values[i][j] == 0;
+            }
+            if (zero) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of non-zero entries
+     */
+    public int getTapCount() {
+        int taps = 0;
+        for (double[] row : values) {
+            for (double value : row) {
+                if (value != 0) {
+                    taps++;
+                }
+            }
+        }
+        return taps;
+    }
+
+    /**
+     * @return the multiplications per output pixel once the kernel is folded
+     * and its zero taps dropped
+     */
+    public int getMultiplications() {
+        return compiled.getMultiplications();
+    }
+
+    /**
+     * @return the sum of the absolute entries, which bounds how far one output
+     * can grow per unit of input
+     */
+    public double getAbsoluteSum() {
+        double sum = 0;
+        for (double[] row : values) {
+            for (double value : row) {
+                sum += Math.abs(value);
+            }
+        }
+        return sum;
+    }
+
+    double[][] values() {
+        return values;
+    }
+
+    double[] columnFactors() {
+        return columnFactors;
+    }
+
+    double[] rowFactors() {
+        return rowFactors;
+    }
+
+    int[][] integerValues() {
+        return integerValues;
+    }
+
+    float[][] floatValues() {
+        return floatValues;
+    }
+
+    CompiledKernel compiled() {
+        return compiled;
+    }
+
+    @Override
+    public String toString() {
+        return "Kernel{" + width + "x" + height +
+                ", separable=" + isSeparable() +
+                ", integer=" + isInteger() +
+                ", horizontalSymmetry=" + horizontalSymmetry +
+                ", verticalSymmetry=" + verticalSymmetry +
+                ", taps=" + getTapCount() +
+                ", multiplications=" + getMultiplications() +
+                '}';
+    }
+}
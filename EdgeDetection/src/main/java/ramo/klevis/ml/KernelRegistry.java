@@ -0,0 +1,91 @@
+package ramo.klevis.ml;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The convolution filters known by name. A kernel is analysed and compiled
+ * once when it is registered, see {@link Kernel}, so looking a filter up per
+ * image costs a map lookup. Lookups may run concurrently with registration.
+ */
+@Slf4j
+public class KernelRegistry {
+
+    private static final double[][] FILTER_VERTICAL = {{1, 0, -1}, {1, 0, -1}, {1, 0, -1}};
+    private static final double[][] FILTER_HORIZONTAL = {{1, 1, 1}, {0, 0, 0}, {-1, -1, -1}};
+
+    private static final double[][] FILTER_SOBEL_V = {{1, 0, -1}, {2, 0, -2}, {1, 0, -1}};
+    private static final double[][] FILTER_SOBEL_H = {{1, 2, 1}, {0, 0, 0}, {-1, -2, -1}};
+
+    private static final double[][] FILTER_SCHARR_V = {{3, 0, -3}, {10, 0, -10}, {3, 0, -3}};
+    private static final double[][] FILTER_SCHARR_H = {{3, 10, 3}, {0, 0, 0}, {-3, -10, -3}};
+
+    private final ConcurrentHashMap<String, Kernel> kernels = new ConcurrentHashMap<>();
+    private final List<String> names = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return a registry with the filters named by the constants of {@link EdgeDetection}
+     */
+    public static KernelRegistry defaults() {
+        KernelRegistry registry = new KernelRegistry();
+        registry.register(EdgeDetection.HORIZONTAL_FILTER, FILTER_HORIZONTAL);
+        registry.register(EdgeDetection.VERTICAL_FILTER, FILTER_VERTICAL);
+
+        registry.register(EdgeDetection.SOBEL_FILTER_VERTICAL, FILTER_SOBEL_V);
+        registry.register(EdgeDetection.SOBEL_FILTER_HORIZONTAL, FILTER_SOBEL_H);
+
+        registry.register(EdgeDetection.SCHARR_FILTER_VETICAL, FILTER_SCHARR_V);
+        registry.register(EdgeDetection.SCHARR_FILTER_HORIZONTAL, FILTER_SCHARR_H);
+        return registry;
+    }
+
+    /**
+     * @param name   the name the filter is selected by
+     * @param values the kernel values indexed as {@code [row][column]}
+     * @return the analysed kernel
+     */
+    public Kernel register(String name, double[][] values) {
+        return register(name, new Kernel(values));
+    }
+
+    /**
+     * @param name   the name the filter is selected by, not yet registered
+     * @param kernel the kernel
+     * @return the kernel
+     */
+    public Kernel register(String name, Kernel kernel) {
+        if (kernels.putIfAbsent(name, kernel) != null) {
+            throw new IllegalArgumentException("Filter " + name + " is already registered");
+        }
+        names.add(name);
+        log.debug("Registered {} as {}", name, kernel);
+        return kernel;
+    }
+
+    /**
+     * @param name the filter name
+     * @return the kernel registered under the name
+     */
+    public Kernel get(String name) {
+        Kernel kernel = name == null ? null : kernels.get(name);
+        if (kernel == null) {
+            throw new IllegalArgumentException("Unknown filter " + name);
+        }
+        return kernel;
+    }
+
+    public boolean contains(String name) {
+        return name != null && kernels.containsKey(name);
+    }
+
+    /**
+     * @return the filter names in the order they were registered
+     */
+    public List<String> getNames() {
+        return new ArrayList<>(names);
+    }
+}
@@ -0,0 +1,61 @@
+package ramo.klevis.ml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a binary PGM (P5) file. The header has a fixed length and every row
+ * of pixels a fixed place after it, so each tile row goes straight to its
+ * position in the file.
+ */
+class PgmTileWriter implements TileWriter {
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final long headerLength;
+
+    PgmTileWriter(File file, int width, int height) throws IOException {
+        this.width = width;
+        this.height = height;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        byte[] header = ("P5\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+        headerLength = header.length;
+        try {
+            writeFully(ByteBuffer.wrap(header), 0);
+            // sets the file length, rows not written yet read as black
+            writeFully(ByteBuffer.allocate(1), headerLength + (long) width * height - 1);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(int x, int y, int tileWidth, int tileHeight, byte[] grey) throws IOException {
+        if (x < 0 || y < 0 || x + tileWidth > width || y + tileHeight > height) {
+            throw new IllegalArgumentException("Tile " + tileWidth + "x" + tileHeight + " at " + x + "," + y
+                    + " is outside of " + width + "x" + height);
+        }
+        for (int row = 0; row < tileHeight; row++) {
+            writeFully(ByteBuffer.wrap(grey, row * tileWidth, tileWidth),
+                    headerLength + (long) (y + row) * width + x);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
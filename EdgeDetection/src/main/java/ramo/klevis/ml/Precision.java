@@ -0,0 +1,25 @@
+package ramo.klevis.ml;
+
+/**
+ * The number type edge detection stores pixels in and accumulates with.
+ */
+public enum Precision {
+    /**
+     * 64 bit floating point, the original behaviour. 24 bytes per pixel for
+     * the three channels plus 8 for the result.
+     */
+    DOUBLE,
+    /**
+     * 32 bit floating point, half the memory of {@link #DOUBLE}. For integer
+     * kernels every partial sum is an integer well below 2^24, which a float
+     * holds exactly, so the output equals {@link #DOUBLE}.
+     */
+    FLOAT,
+    /**
+     * Unsigned 8 bit channels accumulated in {@code int}, 3 bytes per pixel plus
+     * 4 for the result. Only for kernels whose entries are all integers, where
+     * integer arithmetic is exact and the output equals {@link #DOUBLE}. Other
+     * kernels fall back to {@link #FLOAT}.
+     */
+    INTEGER
+}
@@ -0,0 +1,8 @@
+package ramo.klevis.ml;
+
+/**
+ * A range of rows or of array indexes, {@code from} inclusive and {@code to} exclusive.
+ */
+interface RowRange {
+    void run(int from, int to);
+}
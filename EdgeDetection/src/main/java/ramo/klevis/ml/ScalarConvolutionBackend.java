@@ -0,0 +1,131 @@
+package ramo.klevis.ml;
+
+/**
+ * Plain Java loops over the flat image arrays. 3x3 kernels use an unrolled
+ * loop, larger separable kernels two 1-D passes and everything else the direct
+ * multiply-accumulate over all taps. Where folding or dropping zero taps saves
+ * multiplications the {@link CompiledKernel} of the kernel runs instead: for
+ * integer 3x3 kernels with three mirrored pairs like Sobel and for larger
+ * kernels that are not separable.
+ */
+public class ScalarConvolutionBackend implements ConvolutionBackend {
+
+    @Override
+    public void convolveRows(ImageBuffer input, Kernel kernel, ImageBuffer output,
+                             int fromRow, int toRow, int columns, boolean accumulate) {
+        CompiledKernel compiled = kernel.compiled();
+        if (kernel.getWidth() == 3 && kernel.getHeight() == 3) {
+            if (kernel.isInteger() && compiled.isThreePairs()) {
+                compiled.convolveRows(input, output, fromRow, toRow, columns, accumulate);
+            } else {
+                convolve3x3(input, kernel.values(), output, fromRow, toRow, columns, accumulate);
+            }
+        } else if (kernel.isSeparable()) {
+            convolveSeparable(input, kernel, output, fromRow, toRow, columns, accumulate);
+        } else if (compiled.getMultiplications() < kernel.getWidth() * kernel.getHeight()) {
+            compiled.convolveRows(input, output, fromRow, toRow, columns, accumulate);
+        } else {
+            convolveGeneric(input, kernel.values(), output, fromRow, toRow, columns, accumulate);
+        }
+    }
+
+    /**
+     * Unrolled 3x3 case, the size of every filter used for edge detection. The
+     * multiply-adds run in the same order as {@link Convolution#singlePixelConvolution}
+     * so the results are identical. The folded loop of an integer kernel gives
+     * the same results too, as long as the pixels are whole numbers.
+     */
+    private void convolve3x3(ImageBuffer input, double[][] kernel, ImageBuffer output,
+                             int fromRow, int toRow, int columns, boolean accumulate) {
+        double k00 = kernel[0][0], k01 = kernel[0][1], k02 = kernel[0][2];
+        double k10 = kernel[1][0], k11 = kernel[1][1], k12 = kernel[1][2];
+        double k20 = kernel[2][0], k21 = kernel[2][1], k22 = kernel[2][2];
+        double[] in = input.getData();
+        double[] out = output.getData();
+        int width = input.getWidth();
+        for (int row = fromRow; row < toRow; row++) {
+            int row0 = row * width;
+            int row1 = row0 + width;
+            int row2 = row1 + width;
+            int target = row1 + 1;
+            for (int column = 0; column < columns; column++) {
+                double sum = k00 * in[row0 + column] + k01 * in[row0 + column + 1] + k02 * in[row0 + column + 2]
+                        + k10 * in[row1 + column] + k11 * in[row1 + column + 1] + k12 * in[row1 + column + 2]
+                        + k20 * in[row2 + column] + k21 * in[row2 + column + 1] + k22 * in[row2 + column + 2];
+                out[target + column] = accumulate ? out[target + column] + sum : sum;
+            }
+        }
+    }
+
+    private void convolveGeneric(ImageBuffer input, double[][] kernel, ImageBuffer output,
+                                 int fromRow, int toRow, int columns, boolean accumulate) {
+        int kernelHeight = kernel.length;
+        int kernelWidth = kernel[0].length;
+        double[] in = input.getData();
+        double[] out = output.getData();
+        int width = input.getWidth();
+        int offset = (kernelHeight / 2) * width + kernelWidth / 2;
+        for (int row = fromRow; row < toRow; row++) {
+            int source = row * width;
+            int target = source + offset;
+            for (int column = 0; column < columns; column++) {
+                double sum = 0;
+                for (int i = 0; i < kernelHeight; i++) {
+                    double[] kernelRow = kernel[i];
+                    int start = source + i * width + column;
+                    for (int j = 0; j < kernelWidth; j++) {
+                        sum = sum + in[start + j] * kernelRow[j];
+                    }
+                }
+                out[target + column] = accumulate ? out[target + column] + sum : sum;
+            }
+        }
+    }
+
+    /**
+     * Runs the column factors down the image into a one row scratch buffer and
+     * then the row factors along that buffer, so no full size intermediate image
+     * is needed. With integer factors and pixels the result equals the direct
+     * convolution exactly, otherwise it may differ in the last bits.
+     */
+    private void convolveSeparable(ImageBuffer input, Kernel kernel, ImageBuffer output,
+                                   int fromRow, int toRow, int columns, boolean accumulate) {
+        double[] columnFactors = kernel.columnFactors();
+        double[] rowFactors = kernel.rowFactors();
+        double[] in = input.getData();
+        double[] out = output.getData();
+        int width = input.getWidth();
+        int offset = (kernel.getHeight() / 2) * width + kernel.getWidth() / 2;
+        double[] vertical = new double[width];
+        for (int row = fromRow; row < toRow; row++) {
+            int source = row * width;
+            double factor = columnFactors[0];
+            for (int column = 0; column < width; column++) {
+                vertical[column] = factor * in[source + column];
+            }
+            for (int i = 1; i < columnFactors.length; i++) {
+                factor = columnFactors[i];
+                if (factor == 0) {
+                    continue;
+                }
+                int start = source + i * width;
+                for (int column = 0; column < width; column++) {
+                    vertical[column] += factor * in[start + column];
+                }
+            }
+            int target = source + offset;
+            for (int column = 0; column < columns; column++) {
+                double sum = 0;
+                for (int j = 0; j < rowFactors.length; j++) {
+                    sum += rowFactors[j] * vertical[column + j];
+                }
+                out[target + column] = accumulate ? out[target + column] + sum : sum;
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+}
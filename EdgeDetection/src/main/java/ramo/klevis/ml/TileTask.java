@@ -0,0 +1,33 @@
+package ramo.klevis.ml;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a range of rows in halves until a tile is small enough, then runs
+ * the tile.
+ */
+class TileTask extends RecursiveAction {
+
+    private final RowRange rowRange;
+    private final int fromRow;
+    private final int toRow;
+    private final int tileRows;
+
+    TileTask(RowRange rowRange, int fromRow, int toRow, int tileRows) {
+        this.rowRange = rowRange;
+        this.fromRow = fromRow;
+        this.toRow = toRow;
+        this.tileRows = tileRows;
+    }
+
+    @Override
+    protected void compute() {
+        if (toRow - fromRow <= tileRows) {
+            rowRange.run(fromRow, toRow);
+            return;
+        }
+        int middle = (fromRow + toRow) >>> 1;
+        invokeAll(new TileTask(rowRange, fromRow, middle, tileRows),
+                new TileTask(rowRange, middle, toRow, tileRows));
+    }
+}
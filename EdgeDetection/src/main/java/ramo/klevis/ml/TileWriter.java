@@ -0,0 +1,43 @@
+package ramo.klevis.ml;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Receives the result of {@link TiledEdgeDetection} one tile at a time, in
+ * any order, so the whole image never has to be in memory.
+ */
+public interface TileWriter extends Closeable {
+
+    /**
+     * @param x      the column of the tile's top left pixel in the image
+     * @param y      the row of the tile's top left pixel in the image
+     * @param width  the tile width
+     * @param height the tile height
+     * @param grey   the row-major 8 bit grey values of the tile, at least width * height long
+     * @throws IOException if the tile can not be written
+     */
+    void write(int x, int y, int width, int height, byte[] grey) throws IOException;
+
+    /**
+     * Opens a writer for a grey image file. A {@code .pgm} file is written
+     * directly; any other suffix needs an {@link javax.imageio.ImageWriter}
+     * that can replace pixels of an empty image, such as the TIFF writer of
+     * Java 9 and later.
+     *
+     * @param file   the file to write, replaced if it exists
+     * @param width  the image width
+     * @param height the image height
+     * @return the writer
+     * @throws IOException if the file can not be created or no writer for its format writes tiles
+     */
+    static TileWriter forFile(File file, int width, int height) throws IOException {
+        String name = file.getName();
+        String suffix = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        if ("pgm".equals(suffix)) {
+            return new PgmTileWriter(file, width, height);
+        }
+        return ImageIOTileWriter.open(file, suffix, width, height);
+    }
+}
@@ -0,0 +1,164 @@
+package ramo.klevis.ml;
+
+import lombok.extern.slf4j.Slf4j;
+import ramo.klevis.ml.image.PixelAccess;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Detects the edges of images too large for the heap. The source is read
+ * through {@link ImageReadParam#setSourceRegion}, each tile together with a halo
+ * as wide as the kernel radius, and each convolved tile goes straight to a
+ * {@link TileWriter}. The result is the same as detecting the edges of the
+ * whole image at once.
+ * <p>
+ * Only tiled formats such as tiled TIFF can decode a region on its own. Readers
+ * of untiled formats such as PNG and JPEG decode from the top of the image up
+ * to the last row of the region on every read, so reading tile by tile would
+ * decode the upper part of the image once per tile. For those the tiles of one
+ * row are cut from a single full-width strip, which leaves one partial decode
+ * per row of tiles. Peak memory then depends on the tile size and the image
+ * width, for tiled images on the tile size only.
+ * <p>
+ * Canny follows edges across the whole image and can not be tiled.
+ */
+@Slf4j
+public class TiledEdgeDetection {
+
+    public static final int DEFAULT_TILE_SIZE = 1024;
+
+    private final EdgeDetection edgeDetection;
+    private final int tileSize;
+
+    public TiledEdgeDetection(EdgeDetection edgeDetection) {
+        this(edgeDetection, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * @param edgeDetection the edge detection applied to each tile
+     * @param tileSize      the width and height of the tiles written, without the halo
+     */
+    public TiledEdgeDetection(EdgeDetection edgeDetection, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("Tile size must be positive but was " + tileSize);
+        }
+        this.edgeDetection = edgeDetection;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * @param source         the image file, any format {@link ImageIO} reads
+     * @param selectedFilter one of the filter names of {@link EdgeDetection} except Canny
+     * @param destination    the grey result, see {@link TileWriter#forFile} for the formats
+     * @throws IOException if the source can not be read or the destination not written
+     */
+    public void detectEdges(File source, String selectedFilter, File destination) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(source)) {
+            if (input == null) {
+                throw new IOException("Can not open " + source);
+            }
+            ImageReader reader = openReader(input, source);
+            try (TileWriter writer = TileWriter.forFile(destination, reader.getWidth(0), reader.getHeight(0))) {
+                detectEdges(reader, selectedFilter, writer);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Detects the edges of the first image of the reader tile by tile.
+     *
+     * @param reader         a reader with its input set
+     * @param selectedFilter one of the filter names of {@link EdgeDetection} except Canny
+     * @param writer         receives every tile once
+     * @throws IOException if a tile can not be read or written
+     */
+    public void detectEdges(ImageReader reader, String selectedFilter, TileWriter writer) throws IOException {
+        if (EdgeDetection.CANNY.equals(selectedFilter)) {
+            throw new IllegalArgumentException("Canny needs the whole image and can not be tiled");
+        }
+        boolean gradient = EdgeDetection.SOBEL_GRADIENT_MAGNITUDE.equals(selectedFilter);
+        Kernel filter = gradient ? null : edgeDetection.getFilter(selectedFilter);
+        int haloX = gradient ? 1 : filter.getWidth() / 2;
+        int haloY = gradient ? 1 : filter.getHeight() / 2;
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        long start = System.currentTimeMillis();
+        // one tile at a time, so the pool holds at most one set of arrays per tile size
+        BufferPool bufferPool = new BufferPool(Long.MAX_VALUE);
+        ImageReadParam param = reader.getDefaultReadParam();
+        boolean imageTiled = reader.isImageTiled(0);
+        if (!imageTiled && height > tileSize) {
+            log.warn("{} is not tiled, every row of tiles decodes it again from the top", reader.getFormatName());
+        }
+        int tiles = 0;
+        for (int y = 0; y < height; y += tileSize) {
+            BufferedImage strip = null;
+            int stripY = Math.max(0, y - haloY);
+            for (int x = 0; x < width; x += tileSize) {
+                Rectangle tile = new Rectangle(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y));
+                Rectangle region = new Rectangle(Math.max(0, x - haloX), Math.max(0, y - haloY), 0, 0);
+                region.add(new Rectangle(Math.min(width, tile.x + tile.width + haloX),
+                        Math.min(height, tile.y + tile.height + haloY), 0, 0));
+                int[] grey = bufferPool.takeInts(region.width * region.height);
+                byte[] edges = bufferPool.takeBytes(tile.width * tile.height);
+                try {
+                    if (region.width <= 2 * haloX || region.height <= 2 * haloY) {
+                        // a sliver at the image border, all of it lies in the unfiltered border
+                        Arrays.fill(grey, 0);
+                    } else {
+                        BufferedImage image;
+                        if (imageTiled) {
+                            param.setSourceRegion(region);
+                            image = reader.read(0, param);
+                        } else {
+                            if (strip == null) {
+                                param.setSourceRegion(new Rectangle(0, stripY, width, region.height));
+                                strip = reader.read(0, param);
+                            }
+                            image = strip.getSubimage(region.x, region.y - stripY, region.width, region.height);
+                        }
+                        if (gradient) {
+                            PixelAccess.readRGB(edgeDetection.detectEdgesAsImage(image, selectedFilter), grey);
+                        } else {
+                            edgeDetection.detectEdges(image, filter, grey, bufferPool);
+                        }
+                    }
+                    for (int row = 0; row < tile.height; row++) {
+                        int from = (tile.y - region.y + row) * region.width + tile.x - region.x;
+                        for (int column = 0; column < tile.width; column++) {
+                            edges[row * tile.width + column] = (byte) grey[from + column];
+                        }
+                    }
+                    writer.write(tile.x, tile.y, tile.width, tile.height, edges);
+                } finally {
+                    bufferPool.release(grey);
+                    bufferPool.release(edges);
+                }
+                tiles++;
+            }
+        }
+        log.info("Detected the edges of {}x{} in {} tiles in {} ms", width, height, tiles,
+                System.currentTimeMillis() - start);
+    }
+
+    private ImageReader openReader(ImageInputStream input, File source) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            throw new IOException("No image reader for " + source);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(input);
+        return reader;
+    }
+}
@@ -0,0 +1,123 @@
+package ramo.klevis.ml;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * SIMD backend on top of the incubating Vector API. Each step computes a strip
+ * of as many neighbouring output pixels as fit in a vector register: every
+ * kernel tap is broadcast and multiplied with the matching strip of input
+ * pixels. Larger kernels run tap by tap over a whole output row. The strips
+ * are added up in the same tap order as the scalar loops, so the results are
+ * the same.
+ * <p>
+ * Needs JDK 16+ and {@code --add-modules jdk.incubator.vector} both to compile
+ * and to run. It is only compiled by the {@code vector-api} Maven profile and is
+ * loaded through {@link ConvolutionBackend#vectorIfAvailable()}. Separable
+ * kernels larger than 3x3 are delegated to the scalar two-pass loops, whose
+ * simple streaming loops the JIT already vectorizes.
+ */
+public class VectorConvolutionBackend implements ConvolutionBackend {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private final ScalarConvolutionBackend scalar = new ScalarConvolutionBackend();
+
+    @Override
+    public void convolveRows(ImageBuffer input, Kernel kernel, ImageBuffer output,
+                             int fromRow, int toRow, int columns, boolean accumulate) {
+        int kernelHeight = kernel.getHeight();
+        int kernelWidth = kernel.getWidth();
+        if (kernel.isSeparable() && (kernelWidth > 3 || kernelHeight > 3)) {
+            scalar.convolveRows(input, kernel, output, fromRow, toRow, columns, accumulate);
+            return;
+        }
+        double[][] values = kernel.values();
+        if (kernelWidth == 3 && kernelHeight == 3) {
+            convolve3x3(input, values, output, fromRow, toRow, columns, accumulate);
+            return;
+        }
+        double[] in = input.getData();
+        double[] out = output.getData();
+        int width = input.getWidth();
+        int offset = (kernelHeight / 2) * width + kernelWidth / 2;
+        int lanes = SPECIES.length();
+        int bound = SPECIES.loopBound(columns);
+        double[] sums = new double[columns];
+        for (int row = fromRow; row < toRow; row++) {
+            int source = row * width;
+            Arrays.fill(sums, 0);
+            for (int i = 0; i < kernelHeight; i++) {
+                double[] kernelRow = values[i];
+                for (int j = 0; j < kernelWidth; j++) {
+                    double weight = kernelRow[j];
+                    int start = source + i * width + j;
+                    int column = 0;
+                    for (; column < bound; column += lanes) {
+                        DoubleVector.fromArray(SPECIES, sums, column)
+                                .add(DoubleVector.fromArray(SPECIES, in, start + column).mul(weight))
+                                .intoArray(sums, column);
+                    }
+                    for (; column < columns; column++) {
+                        sums[column] = sums[column] + in[start + column] * weight;
+                    }
+                }
+            }
+            int target = source + offset;
+            if (accumulate) {
+                for (int column = 0; column < columns; column++) {
+                    out[target + column] = out[target + column] + sums[column];
+                }
+            } else {
+                System.arraycopy(sums, 0, out, target, columns);
+            }
+        }
+    }
+
+    private void convolve3x3(ImageBuffer input, double[][] kernel, ImageBuffer output,
+                             int fromRow, int toRow, int columns, boolean accumulate) {
+        double k00 = kernel[0][0], k01 = kernel[0][1], k02 = kernel[0][2];
+        double k10 = kernel[1][0], k11 = kernel[1][1], k12 = kernel[1][2];
+        double k20 = kernel[2][0], k21 = kernel[2][1], k22 = kernel[2][2];
+        double[] in = input.getData();
+        double[] out = output.getData();
+        int width = input.getWidth();
+        int lanes = SPECIES.length();
+        int bound = SPECIES.loopBound(columns);
+        for (int row = fromRow; row < toRow; row++) {
+            int row0 = row * width;
+            int row1 = row0 + width;
+            int row2 = row1 + width;
+            int target = row1 + 1;
+            int column = 0;
+            for (; column < bound; column += lanes) {
+                DoubleVector sum = DoubleVector.fromArray(SPECIES, in, row0 + column).mul(k00)
+                        .add(DoubleVector.fromArray(SPECIES, in, row0 + column + 1).mul(k01))
+                        .add(DoubleVector.fromArray(SPECIES, in, row0 + column + 2).mul(k02))
+                        .add(DoubleVector.fromArray(SPECIES, in, row1 + column).mul(k10))
+                        .add(DoubleVector.fromArray(SPECIES, in, row1 + column + 1).mul(k11))
+                        .add(DoubleVector.fromArray(SPECIES, in, row1 + column + 2).mul(k12))
+                        .add(DoubleVector.fromArray(SPECIES, in, row2 + column).mul(k20))
+                        .add(DoubleVector.fromArray(SPECIES, in, row2 + column + 1).mul(k21))
+                        .add(DoubleVector.fromArray(SPECIES, in, row2 + column + 2).mul(k22));
+                if (accumulate) {
+                    sum = DoubleVector.fromArray(SPECIES, out, target + column).add(sum);
+                }
+                sum.intoArray(out, target + column);
+            }
+            for (; column < columns; column++) {
+                double sum = k00 * in[row0 + column] + k01 * in[row0 + column + 1] + k02 * in[row0 + column + 2]
+                        + k10 * in[row1 + column] + k11 * in[row1 + column + 1] + k12 * in[row1 + column + 2]
+                        + k20 * in[row2 + column] + k21 * in[row2 + column + 1] + k22 * in[row2 + column + 2];
+                out[target + column] = accumulate ? out[target + column] + sum : sum;
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "vector-" + SPECIES.length() + "x64";
+    }
+}
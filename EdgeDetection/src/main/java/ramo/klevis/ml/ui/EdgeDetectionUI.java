@@ -12,8 +12,6 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 
-import static ramo.klevis.ml.EdgeDetection.*;
-
 /**
  * Created by Klevis Ramo
  */
@@ -50,14 +48,9 @@ public class EdgeDetectionUI {
 
         JPanel northPanel = new JPanel();
         JComboBox filterType = new JComboBox();
-        filterType.addItem(HORIZONTAL_FILTER);
-        filterType.addItem(VERTICAL_FILTER);
-
-        filterType.addItem(SOBEL_FILTER_VERTICAL);
-        filterType.addItem(SOBEL_FILTER_HORIZONTAL);
-
-        filterType.addItem(SCHARR_FILTER_VETICAL);
-        filterType.addItem(SCHARR_FILTER_HORIZONTAL);
+        for (String filterName : edgeDetection.getFilterNames()) {
+            filterType.addItem(filterName);
+        }
         filterType.setFont(sansSerifBold);
 
         JButton detect = new JButton("Detect Edges");
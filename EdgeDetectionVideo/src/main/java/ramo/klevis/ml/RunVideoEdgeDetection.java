@@ -0,0 +1,20 @@
+package ramo.klevis.ml;
+
+import java.io.File;
+
+/**
+ * Detects the edges of a video file from the command line:
+ * {@code RunVideoEdgeDetection <input video> <output video> [filter name]}.
+ */
+public class RunVideoEdgeDetection {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: RunVideoEdgeDetection <input video> <output video> [filter name]");
+            System.exit(1);
+        }
+        String filter = args.length > 2 ? args[2] : EdgeDetection.SOBEL_FILTER_VERTICAL;
+        VideoResult result = new VideoEdgeDetection().detectEdges(new File(args[0]), new File(args[1]), filter);
+        System.out.println(result);
+    }
+}
@@ -0,0 +1,178 @@
+package ramo.klevis.ml;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Detects the edges of every frame of a video and encodes them into a new
+ * video. FFmpeg decodes on one thread, a pool of workers convolves and the
+ * calling thread encodes, so the three overlap. The frames live in a fixed
+ * ring of slots, each holding a source and a result image that are reused
+ * for the whole video: the decoder fills a free slot, a worker detects its
+ * edges and the encoder writes the slots back in decoding order before
+ * freeing them. When all slots are taken the decoder waits, which bounds the
+ * memory by the number of slots.
+ */
+@Slf4j
+public class VideoEdgeDetection {
+
+    private static final Future<Slot> END_OF_VIDEO = CompletableFuture.completedFuture(null);
+    private static final int PROGRESS_FRAMES = 100;
+
+    private final EdgeDetectionService edgeDetectionService;
+    private final int workers;
+    private final int slots;
+
+    public VideoEdgeDetection() {
+        this(new EdgeDetectionService(), Runtime.getRuntime().availableProcessors(),
+                2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param edgeDetectionService the service shared by the workers
+     * @param workers              the number of threads convolving frames
+     * @param slots                the number of frames in flight, at least the number of workers
+     */
+    public VideoEdgeDetection(EdgeDetectionService edgeDetectionService, int workers, int slots) {
+        if (workers < 1 || slots < workers) {
+            throw new IllegalArgumentException("Need at least one worker and a slot per worker but got "
+                    + workers + " workers and " + slots + " slots");
+        }
+        this.edgeDetectionService = edgeDetectionService;
+        this.workers = workers;
+        this.slots = slots;
+    }
+
+    /**
+     * @param input          the video to read, any format FFmpeg decodes
+     * @param output         the video to write, the format follows the file suffix
+     * @param selectedFilter one of the filter names of {@link EdgeDetection}
+     * @return the frame count and the sustained frame rate
+     * @throws IOException          if the video can not be decoded or encoded, or
+     *                              decoding was interrupted from outside
+     * @throws InterruptedException if interrupted while waiting for the pipeline
+     */
+    public VideoResult detectEdges(File input, File output, String selectedFilter)
+            throws IOException, InterruptedException {
+        if (!edgeDetectionService.getEdgeDetection().getFilterNames().contains(selectedFilter)) {
+            throw new IllegalArgumentException("Unknown filter " + selectedFilter);
+        }
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(input);
+        grabber.start();
+        try {
+            FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output,
+                    grabber.getImageWidth(), grabber.getImageHeight(), 0);
+            recorder.setFrameRate(grabber.getFrameRate());
+            if (grabber.getVideoBitrate() > 0) {
+                recorder.setVideoBitrate(grabber.getVideoBitrate());
+            }
+            recorder.start();
+            try {
+                VideoResult result = run(grabber, recorder, selectedFilter);
+                log.info("Detected the edges of {} into {}: {}", input, output, result);
+                return result;
+            } finally {
+                recorder.stop();
+                recorder.release();
+            }
+        } finally {
+            grabber.stop();
+            grabber.release();
+        }
+    }
+
+    private VideoResult run(FFmpegFrameGrabber grabber, FFmpegFrameRecorder recorder, String selectedFilter)
+            throws IOException, InterruptedException {
+        BlockingQueue<Slot> free = new ArrayBlockingQueue<>(slots);
+        for (int i = 0; i < slots; i++) {
+            free.add(new Slot(grabber.getImageWidth(), grabber.getImageHeight()));
+        }
+        // every queued future holds a slot, so the end marker always fits
+        BlockingQueue<Future<Slot>> inOrder = new ArrayBlockingQueue<>(slots + 1);
+        ExecutorService workerPool = Executors.newFixedThreadPool(workers);
+        AtomicReference<Throwable> decodeFailure = new AtomicReference<>();
+        Thread decoder = new Thread(() -> {
+            try {
+                Frame frame;
+                while ((frame = grabber.grabImage()) != null) {
+                    Slot slot = free.take();
+                    Java2DFrameConverter.copy(frame, slot.source);
+                    inOrder.put(workerPool.submit(() -> {
+                        edgeDetectionService.detectEdges(slot.source, selectedFilter, slot.edges);
+                        return slot;
+                    }));
+                }
+            } catch (Throwable e) {
+                // run() only interrupts the decoder once it no longer takes frames, an
+                // interrupt from anywhere else must not pass for the end of the video
+                decodeFailure.set(e);
+            } finally {
+                inOrder.offer(END_OF_VIDEO);
+            }
+        }, "video-decoder");
+
+        long start = System.currentTimeMillis();
+        long frames = 0;
+        Java2DFrameConverter converter = new Java2DFrameConverter();
+        decoder.start();
+        try {
+            for (Future<Slot> next = inOrder.take(); next != END_OF_VIDEO; next = inOrder.take()) {
+                Slot slot = resultOf(next);
+                recorder.record(converter.getFrame(slot.edges));
+                free.put(slot);
+                if (++frames % PROGRESS_FRAMES == 0) {
+                    log.info("Encoded {} frames at {} fps", frames,
+                            new VideoResult(frames, System.currentTimeMillis() - start).getFramesPerSecond());
+                }
+            }
+        } finally {
+            decoder.interrupt();
+            decoder.join();
+            workerPool.shutdownNow();
+        }
+        Throwable failure = decodeFailure.get();
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure != null) {
+            throw new IOException("Decoding failed after " + frames + " frames", failure);
+        }
+        return new VideoResult(frames, System.currentTimeMillis() - start);
+    }
+
+    private Slot resultOf(Future<Slot> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Edge detection of a frame failed", e.getCause());
+        }
+    }
+
+    /**
+     * One frame in flight.
+     */
+    private static class Slot {
+        private final BufferedImage source;
+        private final BufferedImage edges;
+
+        Slot(int width, int height) {
+            source = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            edges = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ramo.klevis.ml;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Counts of one {@link VideoEdgeDetection} run.
+ */
+@Getter
+@AllArgsConstructor
+public class VideoResult {
+    private final long frames;
+    private final long elapsedMillis;
+
+    /**
+     * @return the frames decoded, convolved and encoded per second over the whole video
+     */
+    public double getFramesPerSecond() {
+        return elapsedMillis == 0 ? 0 : frames * 1000d / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "VideoResult{" +
+                "frames=" + frames +
+                ", elapsedMillis=" + elapsedMillis +
+                ", framesPerSecond=" + getFramesPerSecond() +
+                '}';
+    }
+}
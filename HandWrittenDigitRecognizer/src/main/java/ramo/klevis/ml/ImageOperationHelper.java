@@ -2,6 +2,7 @@ package ramo.klevis.ml;
 
 import com.mortennobel.imagescaling.ResampleFilters;
 import com.mortennobel.imagescaling.ResampleOp;
+import ramo.klevis.ml.image.PixelAccess;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -39,13 +40,14 @@ public class ImageOperationHelper {
         double[] imageGray = new double[28 * 28];
         int w = img.getWidth();
         int h = img.getHeight();
+        int[] pixels = PixelAccess.readRGB(img, null);
         int index = 0;
         for (int i = 0; i < w; i++) {
             for (int j = 0; j < h; j++) {
-                Color color = new Color(img.getRGB(j, i), true);
-                int red = (color.getRed());
-                int green = (color.getGreen());
-                int blue = (color.getBlue());
+                int rgb = pixels[i * w + j];
+                int red = (rgb >> 16) & 0xFF;
+                int green = (rgb >> 8) & 0xFF;
+                int blue = rgb & 0xFF;
                 //RGB-> black and white or gray scale
                 double v = 255 - (red + green + blue) / 3d;
                 imageGray[index] = v;
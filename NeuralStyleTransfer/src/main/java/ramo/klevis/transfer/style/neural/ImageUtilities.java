@@ -5,9 +5,9 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.preprocessor.DataNormalization;
 import org.nd4j.linalg.dataset.api.preprocessor.VGG16ImagePreProcessor;
 import org.nd4j.linalg.factory.Nd4j;
+import ramo.klevis.ml.image.PixelAccess;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -48,7 +48,7 @@ public class ImageUtilities {
 
         int height = shape[2];
         int width = shape[3];
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[width * height];
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {
                 int red = array.getInt(0, 2, y, x);
@@ -63,10 +63,10 @@ public class ImageUtilities {
                 red = Math.max(red, 0);
                 green = Math.max(green, 0);
                 blue = Math.max(blue, 0);
-                image.setRGB(x, y, new Color(red, green, blue).getRGB());
+                pixels[y * width + x] = red << 16 | green << 8 | blue;
             }
         }
-        return image;
+        return PixelAccess.createRGB(width, height, pixels);
     }
 
     public INDArray createGeneratedImage() throws IOException {
@@ -0,0 +1,80 @@
+package ramo.klevis.ml.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Image sizes and seeded random images shared by the benchmarks, so every
+ * run measures the same pixels.
+ */
+public class BenchmarkImages {
+
+    /**
+     * The values accepted by {@link #width(String)} and {@link #height(String)}.
+     */
+    public static final String VGA = "VGA";
+    public static final String HD = "HD";
+    public static final String FULL_HD = "FHD";
+    public static final String UHD_4K = "4K";
+    public static final String UHD_8K = "8K";
+
+    private static final long SEED = 42;
+
+    public static int width(String size) {
+        return dimensions(size)[0];
+    }
+
+    public static int height(String size) {
+        return dimensions(size)[1];
+    }
+
+    private static int[] dimensions(String size) {
+        switch (size) {
+            case VGA:
+                return new int[]{640, 480};
+            case HD:
+                return new int[]{1280, 720};
+            case FULL_HD:
+                return new int[]{1920, 1080};
+            case UHD_4K:
+                return new int[]{3840, 2160};
+            case UHD_8K:
+                return new int[]{7680, 4320};
+            default:
+                throw new IllegalArgumentException("Unknown image size " + size);
+        }
+    }
+
+    /**
+     * @param type one of the {@code BufferedImage.TYPE_*} constants
+     * @return an image of random pixels
+     */
+    public static BufferedImage randomImage(String size, int type) {
+        int width = width(size);
+        int height = height(size);
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(SEED);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = random.nextInt(0x1000000);
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    /**
+     * @return random grey levels indexed as {@code [row][column]}
+     */
+    public static double[][] randomChannel(String size) {
+        Random random = new Random(SEED);
+        double[][] channel = new double[height(size)][width(size)];
+        for (double[] row : channel) {
+            for (int x = 0; x < row.length; x++) {
+                row[x] = random.nextInt(256);
+            }
+        }
+        return channel;
+    }
+}
@@ -0,0 +1,71 @@
+package ramo.klevis.ml.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ramo.klevis.ml.ConvolutionBackend;
+import ramo.klevis.ml.ConvolutionEngine;
+import ramo.klevis.ml.ImageBuffer;
+import ramo.klevis.ml.Kernel;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the scalar and the Vector API convolution backends on a Full HD
+ * RGB image. The kernels are random so they are not separable and both
+ * backends run the direct multiply-accumulate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConvolutionBackendBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    @Param({"3", "5", "7"})
+    private int kernelSize;
+
+    @Param({"scalar", "vector"})
+    private String backend;
+
+    private ImageBuffer[] channels;
+    private ImageBuffer output;
+    private Kernel kernel;
+    private ConvolutionEngine engine;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        channels = new ImageBuffer[3];
+        for (int c = 0; c < channels.length; c++) {
+            channels[c] = new ImageBuffer(WIDTH, HEIGHT);
+            double[] data = channels[c].getData();
+            for (int i = 0; i < data.length; i++) {
+                data[i] = random.nextInt(256);
+            }
+        }
+        double[][] values = new double[kernelSize][kernelSize];
+        for (int i = 0; i < kernelSize; i++) {
+            for (int j = 0; j < kernelSize; j++) {
+                values[i][j] = random.nextGaussian();
+            }
+        }
+        kernel = new Kernel(values);
+        output = new ImageBuffer(WIDTH, HEIGHT);
+        ConvolutionBackend selected = "vector".equals(backend)
+                ? ConvolutionBackend.vectorIfAvailable() : ConvolutionBackend.scalar();
+        if (!selected.getName().startsWith(backend)) {
+            System.err.println("Vector API not available, measuring " + selected.getName() + " instead");
+        }
+        engine = new ConvolutionEngine(1, selected);
+    }
+
+    @Benchmark
+    public ImageBuffer convolve() {
+        engine.convolvePaddedSum(channels, kernel, output);
+        return output;
+    }
+}
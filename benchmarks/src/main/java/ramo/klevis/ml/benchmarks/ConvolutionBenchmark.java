@@ -0,0 +1,68 @@
+package ramo.klevis.ml.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ramo.klevis.ml.Convolution;
+import ramo.klevis.ml.ConvolutionEngine;
+import ramo.klevis.ml.EdgeDetection;
+import ramo.klevis.ml.ImageBuffer;
+import ramo.klevis.ml.Kernel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One grey channel convolved with every filter of {@link EdgeDetection}: the
+ * original jagged array methods of {@link Convolution} next to the flat
+ * {@link ConvolutionEngine} they were replaced with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ConvolutionBenchmark {
+
+    @Param({BenchmarkImages.VGA, BenchmarkImages.HD, BenchmarkImages.FULL_HD,
+            BenchmarkImages.UHD_4K, BenchmarkImages.UHD_8K})
+    private String size;
+
+    @Param({EdgeDetection.HORIZONTAL_FILTER, EdgeDetection.VERTICAL_FILTER,
+            EdgeDetection.SOBEL_FILTER_VERTICAL, EdgeDetection.SOBEL_FILTER_HORIZONTAL,
+            EdgeDetection.SCHARR_FILTER_VETICAL, EdgeDetection.SCHARR_FILTER_HORIZONTAL})
+    private String filter;
+
+    private double[][] input;
+    private double[][] kernel;
+    private ImageBuffer buffer;
+    private ImageBuffer output;
+    private Kernel analysedKernel;
+    private ConvolutionEngine engine;
+
+    @Setup
+    public void setUp() {
+        input = BenchmarkImages.randomChannel(size);
+        analysedKernel = new EdgeDetection().getFilter(filter);
+        kernel = analysedKernel.toArray();
+        buffer = ImageBuffer.fromArray(input);
+        output = new ImageBuffer(buffer.getWidth(), buffer.getHeight());
+        engine = new ConvolutionEngine();
+    }
+
+    @Benchmark
+    public double[][] convolution2D() {
+        return Convolution.convolution2D(input, input.length, input[0].length,
+                kernel, kernel.length, kernel[0].length);
+    }
+
+    @Benchmark
+    public double[][] convolution2DPadded() {
+        return Convolution.convolution2DPadded(input, input.length, input[0].length,
+                kernel, kernel.length, kernel[0].length);
+    }
+
+    @Benchmark
+    public ImageBuffer convolvePadded() {
+        engine.convolvePadded(buffer, analysedKernel, output);
+        return output;
+    }
+}
@@ -0,0 +1,44 @@
+package ramo.klevis.ml.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ramo.klevis.ml.EdgeDetection;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole in-memory edge detection of one RGB image: pixel conversion,
+ * convolution and the output image, for every filter name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class EdgeDetectionBenchmark {
+
+    @Param({BenchmarkImages.VGA, BenchmarkImages.HD, BenchmarkImages.FULL_HD,
+            BenchmarkImages.UHD_4K, BenchmarkImages.UHD_8K})
+    private String size;
+
+    @Param({EdgeDetection.HORIZONTAL_FILTER, EdgeDetection.VERTICAL_FILTER,
+            EdgeDetection.SOBEL_FILTER_VERTICAL, EdgeDetection.SOBEL_FILTER_HORIZONTAL,
+            EdgeDetection.SCHARR_FILTER_VETICAL, EdgeDetection.SCHARR_FILTER_HORIZONTAL,
+            EdgeDetection.SOBEL_GRADIENT_MAGNITUDE, EdgeDetection.CANNY})
+    private String filter;
+
+    private BufferedImage image;
+    private EdgeDetection edgeDetection;
+
+    @Setup
+    public void setUp() {
+        image = BenchmarkImages.randomImage(size, BufferedImage.TYPE_3BYTE_BGR);
+        edgeDetection = new EdgeDetection();
+    }
+
+    @Benchmark
+    public BufferedImage detectEdgesAsImage() {
+        return edgeDetection.detectEdgesAsImage(image, filter);
+    }
+}
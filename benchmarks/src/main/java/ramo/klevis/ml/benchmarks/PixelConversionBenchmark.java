@@ -0,0 +1,84 @@
+package ramo.klevis.ml.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ramo.klevis.ml.image.PixelAccess;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converting between images and pixel arrays through {@link PixelAccess}, next
+ * to the per-pixel {@code getRGB}/{@code setRGB} and {@link Color} loops it
+ * replaced. {@code TYPE_3BYTE_BGR} is what ImageIO returns for JPEGs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PixelConversionBenchmark {
+
+    @Param({BenchmarkImages.VGA, BenchmarkImages.HD, BenchmarkImages.FULL_HD,
+            BenchmarkImages.UHD_4K, BenchmarkImages.UHD_8K})
+    private String size;
+
+    @Param({"INT_RGB", "3BYTE_BGR"})
+    private String imageType;
+
+    private BufferedImage image;
+    private double[] red;
+    private double[] green;
+    private double[] blue;
+    private int[] rgb;
+
+    @Setup
+    public void setUp() {
+        int type = "INT_RGB".equals(imageType) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_3BYTE_BGR;
+        image = BenchmarkImages.randomImage(size, type);
+        int pixels = image.getWidth() * image.getHeight();
+        red = new double[pixels];
+        green = new double[pixels];
+        blue = new double[pixels];
+        rgb = PixelAccess.readRGB(image, null);
+    }
+
+    @Benchmark
+    public double[] readChannels() {
+        PixelAccess.readChannels(image, red, green, blue);
+        return blue;
+    }
+
+    @Benchmark
+    public double[] readChannelsPerPixel() {
+        int width = image.getWidth();
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                Color color = new Color(image.getRGB(x, y));
+                red[y * width + x] = color.getRed();
+                green[y * width + x] = color.getGreen();
+                blue[y * width + x] = color.getBlue();
+            }
+        }
+        return blue;
+    }
+
+    @Benchmark
+    public BufferedImage createRGB() {
+        return PixelAccess.createRGB(image.getWidth(), image.getHeight(), rgb);
+    }
+
+    @Benchmark
+    public BufferedImage setRGBPerPixel() {
+        int width = image.getWidth();
+        BufferedImage result = new BufferedImage(width, image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                int value = rgb[y * width + x];
+                result.setRGB(x, y, new Color(value >> 16 & 0xFF, value >> 8 & 0xFF, value & 0xFF).getRGB());
+            }
+        }
+        return result;
+    }
+}
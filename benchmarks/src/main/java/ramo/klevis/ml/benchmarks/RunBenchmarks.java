@@ -0,0 +1,56 @@
+package ramo.klevis.ml.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the benchmarks matching the JMH command line arguments, for example
+ * {@code java -jar benchmarks/target/benchmarks.jar ConvolutionBackend} or
+ * {@code java -jar benchmarks/target/benchmarks.jar EdgeDetectionBenchmark -p size=FHD}.
+ * On JDK 16+ the forked JVMs get the Vector API module so the vector backend
+ * can be measured, next to the heap size and other arguments the benchmarks
+ * set in their {@code @Fork}.
+ * <p>
+ * The GC profiler is always on, so next to ops/s and the sample time
+ * percentiles every result shows the allocation rate. Unless {@code -rf} says
+ * otherwise the results are also written to {@value #RESULT_FILE}, which can be
+ * kept to compare the next run against.
+ */
+public class RunBenchmarks {
+
+    private static final String RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!System.getProperty("java.specification.version").startsWith("1.")) {
+            // Prepended, so the jvmArgsAppend of each benchmark's @Fork is still used
+            List<String> jvmArgs = new ArrayList<>(commandLine.getJvmArgsPrepend().orElse(Collections.emptyList()));
+            jvmArgs.add("--add-modules");
+            jvmArgs.add("jdk.incubator.vector");
+            options.jvmArgsPrepend(jvmArgs.toArray(new String[0]));
+        }
+        boolean gcProfiler = false;
+        for (ProfilerConfig profiler : commandLine.getProfilers()) {
+            gcProfiler |= "gc".equals(profiler.getKlass()) || GCProfiler.class.getName().equals(profiler.getKlass());
+        }
+        if (!gcProfiler) {
+            options.addProfiler(GCProfiler.class);
+        }
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON).result(RESULT_FILE);
+        }
+        new Runner(options.build()).run();
+    }
+}
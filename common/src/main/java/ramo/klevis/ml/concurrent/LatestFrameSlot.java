@@ -0,0 +1,124 @@
+package ramo.klevis.ml.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the newest video frame from a decoding thread to a slower consumer,
+ * such as a detector. The slot holds a single frame: offering a frame
+ * replaces one the consumer has not taken yet, and that frame counts as
+ * dropped. The consumer always works on the most recent frame. Memory stays
+ * at one frame however far the consumer falls behind.
+ * <p>
+ * Offering never blocks and takes no lock. A consumer that finds the slot
+ * empty parks until a frame arrives or its timeout passes. The slot is meant
+ * for a single consumer; with several, all but one may wait for their timeout.
+ *
+ * @param <T> the frame type
+ */
+public class LatestFrameSlot<T> {
+
+    private final AtomicReference<T> slot = new AtomicReference<>();
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong taken = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Thread waiter;
+
+    /**
+     * @param frame the newest frame, replacing the one still waiting if any
+     * @return the frame replaced, which the consumer will never see, or null
+     */
+    public T offer(T frame) {
+        if (frame == null) {
+            throw new IllegalArgumentException("Frame must not be null");
+        }
+        offered.incrementAndGet();
+        T replaced = slot.getAndSet(frame);
+        if (replaced != null) {
+            dropped.incrementAndGet();
+        }
+        Thread waiting = waiter;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+        return replaced;
+    }
+
+    /**
+     * @return the waiting frame, or null if there is none
+     */
+    public T poll() {
+        T frame = slot.getAndSet(null);
+        if (frame != null) {
+            taken.incrementAndGet();
+        }
+        return frame;
+    }
+
+    /**
+     * Waits for a frame.
+     *
+     * @param timeout how long to wait at most
+     * @param unit    the unit of the timeout
+     * @return the newest frame, or null if none arrived in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public T take(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        T frame;
+        while ((frame = poll()) == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            waiter = Thread.currentThread();
+            if (slot.get() == null) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            waiter = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * @return whether no frame is waiting
+     */
+    public boolean isEmpty() {
+        return slot.get() == null;
+    }
+
+    /**
+     * @return how many frames were offered
+     */
+    public long getOffered() {
+        return offered.get();
+    }
+
+    /**
+     * @return how many frames the consumer took
+     */
+    public long getTaken() {
+        return taken.get();
+    }
+
+    /**
+     * @return how many frames were replaced before the consumer took them
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "LatestFrameSlot{" +
+                "offered=" + getOffered() +
+                ", taken=" + getTaken() +
+                ", dropped=" + getDropped() +
+                '}';
+    }
+}
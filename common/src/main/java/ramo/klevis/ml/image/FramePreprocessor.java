@@ -0,0 +1,129 @@
+package ramo.klevis.ml.image;
+
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.bytedeco.javacpp.opencv_core.*;
+import static org.bytedeco.javacpp.opencv_imgproc.*;
+
+/**
+ * Turns video frames into the network input without copying pixels through
+ * the Java heap. The frame is wrapped as a {@link Mat} over its native buffer,
+ * resized, converted to floating point and scaled to 0-1 in one OpenCV pass,
+ * and finally split into the planes of a {@code [1, 3, height, width]}
+ * {@link INDArray} allocated once, whose native memory the plane {@link Mat}s
+ * point into. The channels stay in the blue, green, red order of the frame,
+ * as {@link org.datavec.image.loader.NativeImageLoader} keeps them.
+ * <p>
+ * A frame already at the input size is not resized.
+ * <p>
+ * Not thread-safe and every call overwrites the array returned by the one
+ * before. {@link #forSize(int, int)} keeps one per thread and input size, so
+ * the detectors share them without ever sharing one between threads.
+ * <p>
+ * AutonomousDriving and CarTracking both use it with their own DL4J and JavaCV
+ * versions, so it only calls API all of them have.
+ */
+public class FramePreprocessor {
+
+    private static final ThreadLocal<Map<Long, FramePreprocessor>> PER_THREAD =
+            ThreadLocal.withInitial(HashMap::new);
+
+    private final int width;
+    private final int height;
+    private final Size size;
+    private final int depth;
+    private final OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+    private final Mat colour = new Mat();
+    private final Mat resized = new Mat();
+    private final Mat scaled = new Mat();
+    private final INDArray input;
+    private final MatVector planes = new MatVector(3);
+
+    /**
+     * @param width  the input width of the network
+     * @param height the input height of the network
+     */
+    public FramePreprocessor(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.size = new Size(width, height);
+        this.input = Nd4j.create(new int[]{1, 3, height, width}, 'c');
+        this.depth = input.data().dataType() == DataBuffer.Type.DOUBLE ? CV_64F : CV_32F;
+        long planeBytes = (long) width * height * input.data().getElementSize();
+        Pointer data = input.data().addressPointer();
+        for (int channel = 0; channel < 3; channel++) {
+            // an untyped pointer, whose position the native call adds in bytes
+            Pointer plane = new Pointer(data).position(channel * planeBytes);
+            planes.put(channel, new Mat(height, width, depth, plane));
+        }
+    }
+
+    /**
+     * @return the preprocessor of the calling thread for the input size,
+     * created on first use
+     */
+    public static FramePreprocessor forSize(int width, int height) {
+        return PER_THREAD.get().computeIfAbsent((long) width << 32 | height,
+                key -> new FramePreprocessor(width, height));
+    }
+
+    /**
+     * @return the input for the frame, null if the frame has no image
+     */
+    public INDArray prepare(Frame frame) {
+        if (frame == null || frame.image == null) {
+            return null;
+        }
+        return prepare(converter.convert(frame));
+    }
+
+    /**
+     * @param image an 8 bit grey, BGR or BGRA image of any size
+     * @return the input for the image
+     */
+    public INDArray prepare(Mat image) {
+        if (image.depth() != CV_8U) {
+            throw new IllegalArgumentException("Expected an 8 bit image but the depth was " + image.depth());
+        }
+        Mat bgr = toBgr(image);
+        Mat sized = bgr;
+        if (bgr.cols() != width || bgr.rows() != height) {
+            resize(bgr, resized, size);
+            sized = resized;
+        }
+        sized.convertTo(scaled, depth, 1 / 255.0, 0);
+        split(scaled, planes);
+        return input;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    private Mat toBgr(Mat image) {
+        switch (image.channels()) {
+            case 3:
+                return image;
+            case 1:
+                cvtColor(image, colour, COLOR_GRAY2BGR);
+                return colour;
+            case 4:
+                cvtColor(image, colour, COLOR_BGRA2BGR);
+                return colour;
+            default:
+                throw new IllegalArgumentException("Unsupported number of channels " + image.channels());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package ramo.klevis.ml.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Reads and writes whole images through their raster data instead of calling
+ * {@link BufferedImage#getRGB(int, int)} and allocating a {@link java.awt.Color}
+ * per pixel. The image types {@link javax.imageio.ImageIO} usually returns,
+ * {@code TYPE_INT_RGB}, {@code TYPE_INT_ARGB}, {@code TYPE_3BYTE_BGR} and
+ * {@code TYPE_4BYTE_ABGR}, are read straight from their {@link DataBufferInt} or
+ * {@link DataBufferByte}. Any other type goes through the bulk
+ * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)} one row at
+ * a time, so the values are always the same as per-pixel {@code getRGB}.
+ * <p>
+ * All arrays are row-major, the pixel at (x, y) is at {@code y * width + x}.
+ */
+public class PixelAccess {
+
+    private static final int RGB_MASK = 0xFFFFFF;
+    private static final int OPAQUE = 0xFF000000;
+
+    /**
+     * Splits every pixel into its red, green and blue value.
+     *
+     * @param image the source image
+     * @param red   receives the red values, at least width * height long
+     * @param green receives the green values, at least width * height long
+     * @param blue  receives the blue values, at least width * height long
+     */
+    public static void readChannels(BufferedImage image, double[] red, double[] green, double[] blue) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Raster raster = image.getRaster();
+        int translateX = raster.getSampleModelTranslateX();
+        int translateY = raster.getSampleModelTranslateY();
+        if (isPackedRGB(image)) {
+            SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+            int[] data = dataBuffer.getData();
+            for (int y = 0; y < height; y++) {
+                int source = sampleModel.getOffset(-translateX, y - translateY) + dataBuffer.getOffset();
+                int target = y * width;
+                for (int x = 0; x < width; x++) {
+                    int rgb = data[source + x];
+                    red[target + x] = (rgb >> 16) & 0xFF;
+                    green[target + x] = (rgb >> 8) & 0xFF;
+                    blue[target + x] = rgb & 0xFF;
+                }
+            }
+        } else if (isInterleavedBytes(image)) {
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+            byte[] data = dataBuffer.getData();
+            int pixelStride = sampleModel.getPixelStride();
+            int[] bandOffsets = sampleModel.getBandOffsets();
+            for (int y = 0; y < height; y++) {
+                int source = rowOffset(sampleModel, dataBuffer, translateX, translateY, y);
+                int target = y * width;
+                for (int x = 0; x < width; x++) {
+                    red[target + x] = data[source + bandOffsets[0]] & 0xFF;
+                    green[target + x] = data[source + bandOffsets[1]] & 0xFF;
+                    blue[target + x] = data[source + bandOffsets[2]] & 0xFF;
+                    source += pixelStride;
+                }
+            }
+        } else {
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                int target = y * width;
+                for (int x = 0; x < width; x++) {
+                    red[target + x] = (row[x] >> 16) & 0xFF;
+                    green[target + x] = (row[x] >> 8) & 0xFF;
+                    blue[target + x] = row[x] & 0xFF;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads every pixel as {@code 0xRRGGBB}, dropping the alpha.
+     *
+     * @param image the source image
+     * @param rgb   receives the pixels, at least width * height long, or null to allocate one
+     * @return the pixels
+     */
+    public static int[] readRGB(BufferedImage image, int[] rgb) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = rgb == null ? new int[width * height] : rgb;
+        Raster raster = image.getRaster();
+        int translateX = raster.getSampleModelTranslateX();
+        int translateY = raster.getSampleModelTranslateY();
+        if (isPackedRGB(image)) {
+            SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+            int[] data = dataBuffer.getData();
+            for (int y = 0; y < height; y++) {
+                int source = sampleModel.getOffset(-translateX, y - translateY) + dataBuffer.getOffset();
+                int target = y * width;
+                for (int x = 0; x < width; x++) {
+                    pixels[target + x] = data[source + x] & RGB_MASK;
+                }
+            }
+        } else if (isInterleavedBytes(image)) {
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+            byte[] data = dataBuffer.getData();
+            int pixelStride = sampleModel.getPixelStride();
+            int[] bandOffsets = sampleModel.getBandOffsets();
+            for (int y = 0; y < height; y++) {
+                int source = rowOffset(sampleModel, dataBuffer, translateX, translateY, y);
+                int target = y * width;
+                for (int x = 0; x < width; x++) {
+                    pixels[target + x] = (data[source + bandOffsets[0]] & 0xFF) << 16
+                            | (data[source + bandOffsets[1]] & 0xFF) << 8
+                            | (data[source + bandOffsets[2]] & 0xFF);
+                    source += pixelStride;
+                }
+            }
+        } else {
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, pixels, y * width, width);
+                for (int x = y * width; x < (y + 1) * width; x++) {
+                    pixels[x] &= RGB_MASK;
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Wraps an array of {@code 0xRRGGBB} pixels into a {@code TYPE_INT_RGB}
+     * image without copying it, later writes to the array show in the image.
+     *
+     * @param width  the image width
+     * @param height the image height
+     * @param rgb    the pixels, width * height long
+     * @return the image backed by the array
+     */
+    public static BufferedImage createRGB(int width, int height, int[] rgb) {
+        DirectColorModel colorModel = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+        DataBufferInt dataBuffer = new DataBufferInt(rgb, width * height);
+        WritableRaster raster = Raster.createPackedRaster(dataBuffer, width, height, width,
+                colorModel.getMasks(), null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Writes {@code 0xRRGGBB} pixels into an existing image. Images with an
+     * alpha channel get fully opaque pixels.
+     *
+     * @param image the image to write into
+     * @param rgb   the pixels, width * height long
+     */
+    public static void writeRGB(BufferedImage image, int[] rgb) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        WritableRaster raster = image.getRaster();
+        int translateX = raster.getSampleModelTranslateX();
+        int translateY = raster.getSampleModelTranslateY();
+        if (isPackedRGB(image)) {
+            SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+            int[] data = dataBuffer.getData();
+            boolean alpha = image.getType() == BufferedImage.TYPE_INT_ARGB;
+            for (int y = 0; y < height; y++) {
+                int target = sampleModel.getOffset(-translateX, y - translateY) + dataBuffer.getOffset();
+                if (alpha) {
+                    int source = y * width;
+                    for (int x = 0; x < width; x++) {
+                        data[target + x] = rgb[source + x] | OPAQUE;
+                    }
+                } else {
+                    System.arraycopy(rgb, y * width, data, target, width);
+                }
+            }
+        } else if (isInterleavedBytes(image)) {
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+            byte[] data = dataBuffer.getData();
+            int pixelStride = sampleModel.getPixelStride();
+            int[] bandOffsets = sampleModel.getBandOffsets();
+            boolean alpha = bandOffsets.length > 3;
+            for (int y = 0; y < height; y++) {
+                int target = rowOffset(sampleModel, dataBuffer, translateX, translateY, y);
+                int source = y * width;
+                for (int x = 0; x < width; x++) {
+                    int pixel = rgb[source + x];
+                    data[target + bandOffsets[0]] = (byte) (pixel >> 16);
+                    data[target + bandOffsets[1]] = (byte) (pixel >> 8);
+                    data[target + bandOffsets[2]] = (byte) pixel;
+                    if (alpha) {
+                        data[target + bandOffsets[3]] = (byte) 0xFF;
+                    }
+                    target += pixelStride;
+                }
+            }
+        } else {
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = rgb[y * width + x] | OPAQUE;
+                }
+                image.setRGB(0, y, width, 1, row, 0, width);
+            }
+        }
+    }
+
+    /**
+     * The index of the first sample of row y, without any band offset.
+     */
+    private static int rowOffset(ComponentSampleModel sampleModel, DataBuffer dataBuffer,
+                                 int translateX, int translateY, int y) {
+        return (y - translateY) * sampleModel.getScanlineStride() - translateX * sampleModel.getPixelStride()
+                + dataBuffer.getOffset();
+    }
+
+    private static boolean isPackedRGB(BufferedImage image) {
+        int type = image.getType();
+        return (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && image.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel
+                && image.getRaster().getDataBuffer().getDataType() == DataBuffer.TYPE_INT;
+    }
+
+    private static boolean isInterleavedBytes(BufferedImage image) {
+        int type = image.getType();
+        return (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)
+                && image.getRaster().getSampleModel() instanceof ComponentSampleModel
+                && image.getRaster().getDataBuffer().getDataType() == DataBuffer.TYPE_BYTE;
+    }
+}